@@ -0,0 +1,162 @@
+package mantesting;
+
+import solver.SAVI;
+import ttp.TTP1Instance;
+import ttp.TTPSolution;
+import utils.Config;
+import utils.Deb;
+import utils.FileHelper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * runs a list of instances in one process
+ *
+ * while instance k is solved, instance k+1 is loaded and
+ * pre-processed in background (parsing, distances, Delaunay
+ * candidates, initial solution), the time limit of an instance
+ * only covers its search
+ *
+ * usage: BatchCLI instances.txt savi.csv [runtime]
+ * (one instance name per line, # for comments)
+ *
+ * @author kyu
+ */
+public class BatchCLI {
+
+  // algorithm name
+  private static final String ALGO_NAME = "savi";
+
+  public static void main(String[] args) {
+
+    // configuration overrides (--key=value)
+    args = Config.parseArgs(args);
+
+    if (args.length < 2) {
+      System.out.println("usage: BatchCLI instances.txt output.csv [runtime]");
+      return;
+    }
+
+    List<String> instances = readInstances(new File(args[0]));
+    final String outputFile = "./output/"+args[1];
+
+    // runtime limit (per instance)
+    long runtimeLimit = Config.get().runtime;
+    if (args.length >= 3)
+      runtimeLimit = Long.parseLong(args[2]);
+
+    // background stage: one instance ahead, at low priority
+    // so that it takes the CPU left by the search
+    ExecutorService prefetch = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "prefetch");
+      t.setDaemon(true);
+      t.setPriority(Thread.MIN_PRIORITY);
+      return t;
+    });
+
+    Future<SAVI> next = instances.isEmpty() ? null : prefetch.submit(prepare(instances.get(0)));
+    for (int k=0; k<instances.size(); k++) {
+      final String inst = instances.get(k);
+
+      SAVI algo;
+      try {
+        algo = next.get();
+      } catch (InterruptedException e) {
+        System.out.println("job was interrupted");
+        break;
+      } catch (ExecutionException e) {
+        System.out.println(inst + ": caught exception: " + e.getCause());
+        algo = null;
+      }
+
+      // start loading the next instance
+      next = k+1 < instances.size() ? prefetch.submit(prepare(instances.get(k+1))) : null;
+
+      if (algo != null) {
+        run(inst, algo, runtimeLimit, outputFile);
+      }
+    }
+    prefetch.shutdown();
+  }
+
+
+  /**
+   * load an instance and build everything its search needs
+   */
+  private static Callable<SAVI> prepare(String inst) {
+    return () -> {
+      String[] spl = inst.split("_",2);
+      TTP1Instance ttp = new TTP1Instance(spl[0]+"-ttp/"+inst);
+      SAVI algo = new SAVI(ttp);
+      algo.prepare();
+      return algo;
+    };
+  }
+
+  /**
+   * search with a time limit, then save the results (see CLI)
+   */
+  private static void run(String inst, SAVI algo, long runtimeLimit, String outputFile) {
+    final TTPSolution[] sx = new TTPSolution[1];
+    final long[] exTime = new long[1];
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<?> future = executor.submit(() -> {
+      long startTime = System.currentTimeMillis();
+      sx[0] = algo.search();
+      exTime[0] = System.currentTimeMillis() - startTime;
+    });
+    executor.shutdown();
+
+    try {
+      future.get(runtimeLimit, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      System.out.println("job was interrupted");
+    } catch (ExecutionException e) {
+      System.out.println("caught exception: " + e.getCause());
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      System.out.println("/!\\ Timeout");
+    }
+
+    // wait for execution to be done
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+    if (sx[0] == null) return;
+
+    String resultLine = inst + " " + Math.round(sx[0].ob) + " " + (exTime[0]/1000.0);
+    String currentTime = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss").format(new Date());
+    CLI.saveResult(outputFile, resultLine,
+      "./output/solutions/"+inst+"-"+ALGO_NAME+"-"+currentTime+".txt",
+      algo.getTTP(), sx[0]);
+  }
+
+  /**
+   * instance names, one per line
+   */
+  private static List<String> readInstances(File file) {
+    List<String> instances = new ArrayList<>();
+    try (BufferedReader br = FileHelper.reader(file)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) continue;
+        instances.add(line);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    Deb.echo(instances.size() + " instances");
+    return instances;
+  }
+}
@@ -3,6 +3,7 @@ package mantesting;
 import solver.*;
 import ttp.TTP1Instance;
 import ttp.TTPSolution;
+import utils.Config;
 import utils.Deb;
 
 import java.io.File;
@@ -20,6 +21,9 @@ public class CLI {
 
   public static void main(String[] args) {
 
+    // configuration overrides (--key=value)
+    args = Config.parseArgs(args);
+
     if (args.length < 2) {
       args = new String[]{"a280_n2790_uncorr_10.ttp"};
     }
@@ -40,19 +44,24 @@ public class CLI {
       outputFile = "./output/"+algoName+".csv";
 
     // runtime limit
-    long runtimeLimit = 600;
+    long runtimeLimit = Config.get().runtime;
     if (args.length >= 3)
       runtimeLimit = Long.parseLong(args[2]);
 
     // TTP instance
     final TTP1Instance ttp = new TTP1Instance(spl[0]+"-ttp/"+inst);
 
-    /* algorithm to run */
-    SearchHeuristic algo = new SAVI(ttp);
+    // number of independent runs sharing the instance
+    int nbRuns = 1;
+    if (args.length >= 4)
+      nbRuns = Integer.parseInt(args[3]);
 
     // runnable class
     class TTPRunnable implements Runnable {
 
+      /* algorithm to run */
+      SearchHeuristic algo = new SAVI(ttp);
+
       String resultLine;
       TTPSolution sx;
 
@@ -74,22 +83,31 @@ public class CLI {
       }
     };
 
-    // my TTP runnable
-    TTPRunnable ttprun = new TTPRunnable();
-    ExecutorService executor = Executors.newFixedThreadPool(4);
-    Future<?> future = executor.submit(ttprun);
+    // my TTP runnables
+    // (the instance is read-only, all runs use the same copy)
+    TTPRunnable[] ttprun = new TTPRunnable[nbRuns];
+    Future<?>[] future = new Future<?>[nbRuns];
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(4, nbRuns));
+    for (int r=0; r<nbRuns; r++) {
+      ttprun[r] = new TTPRunnable();
+      future[r] = executor.submit(ttprun[r]);
+    }
     executor.shutdown();  // reject all further submissions
 
     // limit execution time to 600 seconds
-    try {
-      future.get(runtimeLimit, TimeUnit.SECONDS);  // wait X seconds to finish
-    } catch (InterruptedException e) {
-      System.out.println("job was interrupted");
-    } catch (ExecutionException e) {
-      System.out.println("caught exception: " + e.getCause());
-    } catch (TimeoutException e) {
-      future.cancel(true);
-      System.out.println("/!\\ Timeout");
+    long deadline = System.currentTimeMillis() + runtimeLimit*1000;
+    for (int r=0; r<nbRuns; r++) {
+      try {
+        // wait until the deadline to finish
+        future[r].get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        System.out.println("job was interrupted");
+      } catch (ExecutionException e) {
+        System.out.println("caught exception: " + e.getCause());
+      } catch (TimeoutException e) {
+        future[r].cancel(true);
+        System.out.println("/!\\ Timeout");
+      }
     }
 
     // wait for execution to be done
@@ -99,27 +117,48 @@ public class CLI {
       e.printStackTrace();
     }
 
+    String currentTime = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss").format(new Date());
+    for (int r=0; r<nbRuns; r++) {
+
+      String suffix = nbRuns > 1 ? "-"+(r+1) : "";
+      // (failed run: nothing to save)
+      if (ttprun[r].sx == null) {
+        Deb.echo(inst + suffix + ": no solution");
+        continue;
+      }
+      saveResult(outputFile, ttprun[r].resultLine,
+        "./output/solutions/"+inst+"-"+algoName+"-"+currentTime+suffix+".txt",
+        ttp, ttprun[r].sx);
+    }
+
+  }
+
+
+  /**
+   * print the result line, append it to the output file
+   * and save the solution (with the file's numbering)
+   */
+  static void saveResult(String outputFile, String resultLine,
+                         String solutionFile, TTP1Instance ttp, TTPSolution sx) {
     // print results
-    Deb.echo(ttprun.resultLine);
+    Deb.echo(resultLine);
 
     // log results into text file
     try {
       File file = new File(outputFile);
       if (!file.exists()) file.createNewFile();
-      Files.write(Paths.get(outputFile), (ttprun.resultLine+"\n").getBytes(), StandardOpenOption.APPEND);
+      Files.write(Paths.get(outputFile), (resultLine+"\n").getBytes(), StandardOpenOption.APPEND);
     } catch (IOException e) {
       e.printStackTrace();
     }
 
     // save solution in a file
     try {
-      String currentTime = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss").format(new Date());
-      PrintWriter pw = new PrintWriter("./output/solutions/"+inst+"-"+algoName+"-"+currentTime+".txt");
-      pw.println(ttprun.sx);
+      PrintWriter pw = new PrintWriter(solutionFile);
+      pw.println(ttp.originalLabels(sx));
       pw.close();
     } catch (FileNotFoundException e) {
       e.printStackTrace();
     }
-
   }
 }
@@ -0,0 +1,101 @@
+package mantesting;
+
+import solver.Constructive;
+import ttp.TTP1Instance;
+import ttp.TTPSolution;
+import utils.Config;
+import utils.Deb;
+import utils.SuffixKernel;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * checks SuffixKernel against the scalar loop (same values, bit for bit)
+ * and compares their speed
+ *
+ * usage: SuffixKernelCheck [instance] [nb flips]
+ *
+ * @author kyu
+ */
+public class SuffixKernelCheck {
+
+  public static void main(String[] args) {
+
+    // configuration overrides (--key=value)
+    args = Config.parseArgs(args);
+
+    String inst = args.length >= 1 ? args[0] : "a280_n2790_uncorr_10.ttp";
+    int nbFlips = args.length >= 2 ? Integer.parseInt(args[1]) : 100000;
+
+    TTP1Instance ttp = new TTP1Instance(inst.split("_",2)[0]+"-ttp/"+inst);
+    int nbCities = ttp.getNbCities();
+    int nbItems = ttp.getNbItems();
+    int[] A = ttp.getAvailability();
+    double maxSpeed = ttp.getMaxSpeed();
+    long capacity = ttp.getCapacity();
+    double C = (maxSpeed - ttp.getMinSpeed()) / capacity;
+
+    Constructive construct = new Constructive(ttp);
+    TTPSolution sol = new TTPSolution(construct.linkernTour(), construct.zerosPickingPlan());
+    ttp.objective(sol);
+    int[] pickingPlan = sol.getPickingPlan();
+
+    SuffixKernel kernel = new SuffixKernel(nbCities);
+    kernel.update(sol);
+    // reference: evaluated after each flip
+    TTPSolution ref = sol.clone();
+
+    // random flips: evaluated both ways (bounded or not),
+    // half of them applied (lazily, see SuffixKernel)
+    Random rand = new Random(1);
+    int nbErrors = 0;
+    long[] deltaW = new long[nbFlips];
+    int[] pos = new int[nbFlips];
+    for (int u = 0; u < nbFlips; u++) {
+      int k = rand.nextInt(nbItems);
+      if (pickingPlan[k] == 0 && ttp.weightOf(k) > capacity - kernel.totalWeight()) continue;
+      long dw = pickingPlan[k] == 0 ? ttp.weightOf(k) : -ttp.weightOf(k);
+      int p = sol.mapCI[A[k] - 1];
+      pos[u] = p;
+      deltaW[u] = dw;
+
+      double exact = SuffixKernel.scalarTime(ref, p, dw, maxSpeed, C);
+      double ftMax = rand.nextBoolean() ? Double.POSITIVE_INFINITY : exact * (0.98 + 0.04 * rand.nextDouble());
+      double ft = kernel.finalTime(sol, p, dw, maxSpeed, C, ftMax);
+      // exact, or stopped past the bound (and below the exact time)
+      if (ft != exact && (exact <= ftMax || ft <= ftMax || ft > exact)) nbErrors++;
+
+      if (rand.nextBoolean()) {
+        pickingPlan[k] = pickingPlan[k] != 0 ? 0 : A[k];
+        kernel.apply(p, dw);
+        ref.getPickingPlan()[k] = pickingPlan[k];
+        ttp.objective(ref);
+      }
+    }
+
+    // same vectors as a full evaluation
+    double ft = kernel.sync(sol, maxSpeed, C);
+    if (ft != ref.ft || !Arrays.equals(sol.timeAcc, ref.timeAcc)
+      || !Arrays.equals(sol.weightAcc, ref.weightAcc)) nbErrors++;
+    Deb.echo(inst + ": " + nbFlips + " flips, " + nbErrors + " mismatches");
+
+    // speed on the last solution
+    for (int rep = 0; rep < 3; rep++) {
+      double sum1 = 0, sum2 = 0;
+      long t0 = System.nanoTime();
+      for (int u = 0; u < nbFlips; u++) {
+        sum1 += SuffixKernel.scalarTime(sol, pos[u], deltaW[u], maxSpeed, C);
+      }
+      long t1 = System.nanoTime();
+      for (int u = 0; u < nbFlips; u++) {
+        sum2 += kernel.finalTime(sol, pos[u], deltaW[u], maxSpeed, C);
+      }
+      long t2 = System.nanoTime();
+      Deb.echo("scalar: " + (t1-t0)/1000000 + "ms | kernel: " + (t2-t1)/1000000 + "ms" +
+        (sum1 == sum2 ? "" : " /!\\ different sums"));
+    }
+
+    if (nbErrors > 0) System.exit(1);
+  }
+}
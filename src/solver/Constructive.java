@@ -1,8 +1,9 @@
 package solver;
 
 import ttp.TTP1Instance;
+import ttp.TSPCache;
 import ttp.TTPSolution;
-import utils.ConfigHelper;
+import utils.Config;
 import utils.Deb;
 import utils.Quicksort;
 import utils.RandGen;
@@ -122,18 +123,15 @@ public class Constructive extends TTPHeuristic {
   public int[] greedyTour() {
     
     /* TTP data */
-    long[][] D = ttp.getDist();
     int m = ttp.getNbCities();
     int[] tour = new int[m];
     
     /* the tour generated using greedy algorithm */
     ArrayList<Integer> li = new ArrayList<Integer>();
-    long[] raw;
     long vMin;
     int iMin;
     li.add(0, 1);
     for (int i=1;i<m;i++) {
-      raw = D[i];
       iMin = 0;
       vMin = Long.MAX_VALUE;
       for (int j=1;j<m;j++) {
@@ -141,8 +139,8 @@ public class Constructive extends TTPHeuristic {
           continue;
         }
         
-        if (raw[j]<vMin) {
-          vMin = raw[j];
+        if (ttp.distFor(i, j)<vMin) {
+          vMin = ttp.distFor(i, j);
           iMin = j+1;
         }
       }
@@ -188,38 +186,17 @@ public class Constructive extends TTPHeuristic {
    */
   public int[] linkernTour() {
     int nbCities = ttp.getNbCities();
-    int[] tour = new int[nbCities];
-    
-    String fileName = ttp.getTspName();
-    String dirName = ConfigHelper.getProperty("lktours");
-    fileName += ".linkern.tour";
-    //Deb.echo(dirName + "/" + fileName);
-    
-    File file = new File(dirName + "/" + fileName);
-    BufferedReader br = null;
-    
-    try {
-      br = new BufferedReader(new FileReader(file));
-      String line;
-      
-      // scan tour
-      while ((line = br.readLine()) != null) {
-        
-        if (line.startsWith("TOUR_SECTION")) {
-          
-          for (int j=0; j<nbCities; j++) {
-            line = br.readLine();
-            tour[j] = Integer.parseInt(line);
-          }
-        }
-      } // end while
-      
-      br.close();
-    } catch (IOException ex) {
-      ex.printStackTrace();
+
+    // parsed once per map
+    int[] lk = TSPCache.lkTour(ttp.getTspName(), nbCities);
+    if (lk == null) {
+      Deb.echo(ttp.getTspName() + ": no Lin-Kernighan tour in " + Config.get().lkTours);
+      return new int[nbCities];
     }
-    
-    return tour;
+    int[] tour = lk.clone();
+
+    // file ids -> instance ids
+    return ttp.relabelTour(tour);
   }
 
 
@@ -266,7 +243,8 @@ public class Constructive extends TTPHeuristic {
     }
 
 
-    return tour;
+    // file ids -> instance ids
+    return ttp.relabelTour(tour);
   }
 
 
@@ -279,7 +257,7 @@ public class Constructive extends TTPHeuristic {
     int[] tour = new int[nbCities];
 
     String name = ttp.getName().replaceAll("-.+", "");
-    String fileName = ConfigHelper.getProperty("tspdata") + name + ".tsp";
+    String fileName = Config.get().tspData + name + ".tsp";
     Deb.echo(fileName);
     try {
       // execute linkern program
@@ -312,7 +290,8 @@ public class Constructive extends TTPHeuristic {
       e.printStackTrace();
     }
 
-    return tour;
+    // file ids -> instance ids
+    return ttp.relabelTour(tour);
   }
 
 
@@ -353,18 +332,8 @@ public class Constructive extends TTPHeuristic {
     // maximum capacity
     long maxCapacity = capacity/h;
     
-    // item scores
-    Double[] score = new Double[n];
-    
-    for (int k=0; k<n; k++) {
-      score[k] = ttp.profitOf(k) / (ttp.weightOf(k) + .0);
-    }
-    
-    // sort
-    Quicksort<Double> qs = new Quicksort(score);
-    qs.sort();
-    
-    int[] si = qs.getIndices();
+    // items sorted by profit/weight ratio
+    int[] si = ttp.getItemsByRatio();
     int wc = 0;
     for (int k=0; k<n; k++) {
       int i = si[k];
@@ -457,7 +426,6 @@ public class Constructive extends TTPHeuristic {
   public TTPSolution SH2() {
     
     // get TTP data
-    long[][] D = ttp.getDist();
     int[] A = ttp.getAvailability();
     double maxSpeed = ttp.getMaxSpeed();
     double minSpeed = ttp.getMinSpeed();
@@ -492,7 +460,7 @@ public class Constructive extends TTPHeuristic {
     double tik;
     
     // item scores
-    Double[] score = new Double[n];
+    double[] score = new double[n];
     
     // total time with no items collected
     double t_ = s.ft;
@@ -503,39 +471,41 @@ public class Constructive extends TTPHeuristic {
     // fitness value
     double u[] = new double[n];
     
-    for (int k=0; k<n; k++) {
-      
-      int i;
-      for (i=0; i<m; i++) {
-        if (A[k]==x[i]) break;
-      }
-      //P.echo2("["+k+"]"+(i+1)+"~");
-      
-      // time to start with
-      tik = i==0 ? .0 : s.timeAcc[i-1];
-      int iw = ttp.weightOf(k),
-          ip = ttp.profitOf(k);
-      
-      // recalculate velocities from start
-      di = 0;
-      for (int r=i; r<m; r++) {
+    // items grouped by city
+    int[] clusterStart = ttp.getClusterStart();
+    int[] clusteredItems = ttp.getClusteredItems();
+    
+    // tour edges
+    long[] edge = new long[m];
+    for (int r=0; r<m; r++) {
+      edge[r] = ttp.distFor(x[r]-1, x[(r+1)%m]-1);
+    }
+    
+    // browse the tour, item k is collected from city x_i
+    di = 0;
+    for (int i=m-1; i>=0; i--) {
+      // partial distance, once per city
+      di += edge[i];
+      for (int t=clusterStart[x[i]-1]; t<clusterStart[x[i]]; t++) {
+        int k = clusteredItems[t];
+        
+        // time to start with
+        tik = i==0 ? .0 : s.timeAcc[i-1];
+        int iw = ttp.weightOf(k),
+            ip = ttp.profitOf(k);
         
-        int c1 = x[r]-1;
-        int c2 = x[(r+1)%m]-1;
+        // recalculate velocities from start
+        for (int r=i; r<m; r++) {
+          tik += edge[r] / (maxSpeed-iw*C);
+        }
         
-        di += D[c1][c2];
-        tik += D[c1][c2] / (maxSpeed-iw*C);
+        score[k] = ip - R*tik;
+        tik_ = t_ - di + tik;
+        u[k] = R*t_ + ttp.profitOf(k) - R*tik_;
       }
-      
-      score[k] = ip - R*tik;
-      tik_ = t_ - di + tik;
-      u[k] = R*t_ + ttp.profitOf(k) - R*tik_;
-      //P.echo(k+" : "+u[k]);
     }
     
-    Quicksort<Double> qs = new Quicksort<Double>(score);
-    qs.sort();
-    int[] si = qs.getIndices();
+    int[] si = Quicksort.sortIndices(score);
     int wc = 0;
     for (int k=0; k<n; k++) {
       int i = si[k];
@@ -1,13 +1,21 @@
 package solver;
 
+import ttp.DistanceOracle;
 import ttp.TTP1Instance;
 import ttp.TTPSolution;
+import utils.Config;
 import utils.Deb;
+import utils.FlipMoments;
 import utils.GraphHelper;
 import utils.Quicksort;
+import utils.SuffixKernel;
 import utils.TwoOptHelper;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * local search algorithms
@@ -18,7 +26,17 @@ import java.util.HashSet;
 public abstract class LocalSearch extends SearchHeuristic {
 
   protected TTPSolution s0;
-  protected HashSet<Integer>[] candidates;
+  protected Set<Integer>[] candidates;
+  // triangulation still running (see candidates())
+  private CompletableFuture<Set<Integer>[]> pendingCandidates;
+
+  // background startup stages
+  // (the Delaunay program runs while the initial solution is built)
+  private static final ExecutorService STARTUP = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "startup");
+    t.setDaemon(true);
+    return t;
+  });
 
   // initial solution
   public void setS0(TTPSolution s0) {
@@ -40,12 +58,10 @@ public abstract class LocalSearch extends SearchHeuristic {
 
   public LocalSearch(TTP1Instance ttp) {
     super(ttp);
-    // generate Delaunay triangulation
+    // generate Delaunay triangulation (in background)
     if (! System.getProperty("os.name").contains("Windows")) {
 //      candidates = GraphHelper.delaunayKNN(ttp,10);
-      candidates = GraphHelper.delaunay(ttp);
-
-      if (debug) Deb.echo("Delaunay triangulation: OK");
+      pendingCandidates = CompletableFuture.supplyAsync(() -> delaunay(ttp), STARTUP);
     }
   }
   
@@ -56,13 +72,37 @@ public abstract class LocalSearch extends SearchHeuristic {
     // generate Delaunay triangulation
     if (! System.getProperty("os.name").contains("Windows")) {
 //    candidates = GraphHelper.delaunayKNN(ttp,5);
-      candidates = GraphHelper.delaunay(ttp);
+      candidates = null;
+      pendingCandidates = CompletableFuture.supplyAsync(() -> delaunay(ttp), STARTUP);
     }
   }
 
+  /**
+   * Delaunay candidates,
+   * waits for the triangulation if it is still running
+   */
+  protected Set<Integer>[] candidates() {
+    if (pendingCandidates != null) {
+      candidates = pendingCandidates.join();
+      pendingCandidates = null;
+      if (debug) Deb.echo("Delaunay triangulation: OK");
+    }
+    return candidates;
+  }
+
+  /**
+   * candidates of the configured Delaunay level,
+   * the triangulation itself is shared by the instance
+   */
+  private static Set<Integer>[] delaunay(TTP1Instance ttp) {
+    int L = Config.get().delaunayLevel;
+    return L > 1 ? GraphHelper.delaunayKNN(ttp, L) : ttp.getCandidates();
+  }
+
   public void setDelaunayLevel(int L) {
     // generate Delaunay triangulation
     if (! System.getProperty("os.name").contains("Windows")) {
+      pendingCandidates = null;
       candidates = GraphHelper.delaunayKNN(ttp, L);
     }
   }
@@ -106,7 +146,6 @@ public abstract class LocalSearch extends SearchHeuristic {
     // TTP data
     int nbCities = ttp.getNbCities();
     int nbItems = ttp.getNbItems();
-    long[][] D = ttp.getDist();
     int[] A = ttp.getAvailability();
     double maxSpeed = ttp.getMaxSpeed();
     double minSpeed = ttp.getMinSpeed();
@@ -120,23 +159,18 @@ public abstract class LocalSearch extends SearchHeuristic {
 
     // neighbor solution
     int origBF;
-    int i, k, itr;
+    int k, itr;
 
     // distances of all tour cities (city -> end)
-    long[] L = new long[nbCities];
+    long[] L = ttp.distancesToEnd(tour);
     // current weight
     long wCurr;
     // time approximations
     double t1, t2, t3, a, b1, b2;
 
-    // store `distance to end` of each tour city
-    L[nbCities - 1] = ttp.distFor(tour[nbCities - 1] - 1, 0);
-    for (i = nbCities - 2; i >= 0; i--) {
-      L[i] = L[i + 1] + ttp.distFor(tour[i + 1] - 1, tour[i] - 1);
-    }
 
     // sort item according to score
-    Double[] scores = new Double[nbItems];
+    double[] scores = new double[nbItems];
     int[] insertedItems = new int[nbItems];
 
     for (k = 0; k < nbItems; k++) {
@@ -153,18 +187,30 @@ public abstract class LocalSearch extends SearchHeuristic {
     // evaluate solution after emptying knapsack
     ttp.objective(sol);
 
+    // an item pays at least t2 >= L*C*w / maxSpeed^2:
+    // the items of a city whose best ratio is below L*R*C / maxSpeed^2
+    // are never inserted, they are left out of the sort
+    // (with a margin for the rounding of t2)
+    double minRatio = R * C / (maxSpeed * maxSpeed) * (1 - 1e-4);
+    int[] scoredItems = new int[nbItems];
+    int nbScored = 0;
+    for (k = 0; k < nbItems; k++) {
+      origBF = sol.mapCI[A[k] - 1];
+      if (ttp.ratioOf(ttp.bestRatioItemOf(A[k] - 1)) < L[origBF] * minRatio) continue;
+      scores[nbScored] = scores[k];
+      scoredItems[nbScored++] = k;
+    }
+
     // sort items according to score
-    Quicksort<Double> qs = new Quicksort<>(scores);
-    qs.sort();
-    int[] sortedItems = qs.getIndices();
+    int[] sortedItems = Quicksort.sortIndices(Arrays.copyOf(scores, nbScored));
 
     // loop & insert items
     int nbInserts = 0;
     wCurr = 0;
     int v2 = 0, v3 = 0;
-    for (itr = 0; itr < nbItems; itr++) {
+    for (itr = 0; itr < nbScored; itr++) {
 
-      k = sortedItems[itr];
+      k = scoredItems[sortedItems[itr]];
 
       // check if new weight doesn't exceed knapsack capacity
       if (wCurr + ttp.weightOf(k) > capacity) {
@@ -215,7 +261,6 @@ public abstract class LocalSearch extends SearchHeuristic {
     // TTP data
     int nbCities = ttp.getNbCities();
     int nbItems = ttp.getNbItems();
-    long[][] D = ttp.getDist();
     // ASSIGNED NODE NUMBER
     int[] A = ttp.getAvailability();
     double maxSpeed = ttp.getMaxSpeed();
@@ -230,23 +275,18 @@ public abstract class LocalSearch extends SearchHeuristic {
 
     // neighbor solution
     int origBF;
-    int i, k, itr;
+    int k, itr;
 
     // distances of all tour cities (city -> end)
-    long[] L = new long[nbCities];
+    long[] L = ttp.distancesToEnd(tour);
     // current weight
     long wCurr;
     // time approximations
     double t1, t2, t3, a, b1, b2;
 
-    // store `distance to end` of each tour city
-    L[nbCities-1] = ttp.distFor(tour[nbCities-1] - 1,0);
-    for (i=nbCities-2; i >= 0; i--) {
-      L[i] = L[i+1] + ttp.distFor(tour[i+1]-1, tour[i]-1);
-    }
 
     // sort item according to score
-    Double[] scores = new Double[nbItems];
+    double[] scores = new double[nbItems];
     int[] insertedItems = new int[nbItems];
 
     for (k = 0; k < nbItems; k++) {
@@ -265,9 +305,7 @@ public abstract class LocalSearch extends SearchHeuristic {
     ttp.objective(sol);
 
     // sort items according to score
-    Quicksort<Double> qs = new Quicksort<>(scores);
-    qs.sort();
-    int[] sortedItems = qs.getIndices();
+    int[] sortedItems = Quicksort.sortIndices(scores);
 
     // loop & insert items
     int nbInserts = 0;
@@ -340,10 +378,10 @@ public abstract class LocalSearch extends SearchHeuristic {
     // neighbor solution
     long fp;
     double ft, G;
-    long wc;
-    int r;
-
 
+    // suffix evaluation (see SuffixKernel)
+    SuffixKernel kernel = new SuffixKernel(nbCities);
+    kernel.update(sol);
 
     // improvement indicator
     boolean improved = false;
@@ -357,14 +395,10 @@ public abstract class LocalSearch extends SearchHeuristic {
       // index where Bit-Flip happened
       origBF = sol.mapCI[A[k] - 1];
 
-      // starting time
-      ft = origBF == 0 ? 0 : sol.timeAcc[origBF - 1];
-
       // recalculate velocities from bit-flip city
-      for (r = origBF; r < nbCities; r++) {
-        wc = sol.weightAcc[r] - ttp.weightOf(k);;
-        ft += ttp.distFor(tour[r]-1, tour[(r + 1) % nbCities]-1) / (maxSpeed - wc * C);
-      }
+      // (up to the largest time that may improve the rounded objective)
+      ft = kernel.finalTime(sol, origBF, -ttp.weightOf(k), maxSpeed, C,
+        SuffixKernel.maxTime(fp, GBest - 1, R));
 
       G = Math.round(fp - ft * R);
 
@@ -412,6 +446,8 @@ public abstract class LocalSearch extends SearchHeuristic {
     double minSpeed = ttp.getMinSpeed();
     long capacity = ttp.getCapacity();
     double C = (maxSpeed - minSpeed) / capacity;
+    Set<Integer>[] candidates = candidates();
+    DistanceOracle D = ttp.getDist();
 
     // initial solution data
     int[] tour;
@@ -472,7 +508,7 @@ public abstract class LocalSearch extends SearchHeuristic {
             c1 = TwoOptHelper.get2optValue(q, tour, i, j) - 1;
             c2 = TwoOptHelper.get2optValue((q + 1) % nbCities, tour, i, j) - 1;
 
-            deltaT += -sol.timeRec[q] + ttp.distFor(c1,c2) / (maxSpeed - wc * C);
+            deltaT += -sol.timeRec[q] + D.dist(c1,c2) / (maxSpeed - wc * C);
           }
 
           // retrieve neighbor's final time
@@ -500,10 +536,11 @@ public abstract class LocalSearch extends SearchHeuristic {
       if (improved) {
 
         // apply 2-opt move
-        TwoOptHelper.do2opt(tour, iBest, jBest);
+        TwoOptHelper.do2opt(sol, D, iBest, jBest);
 
         // evaluate & update vectors
-        ttp.objective(sol);
+        // (from the first changed edge)
+        ttp.objective(sol, iBest-1);
       }
 
       // debug msg
@@ -517,10 +554,7 @@ public abstract class LocalSearch extends SearchHeuristic {
 
     if (debug) Deb.echo("==> 2-opt :" + nbIter + " iterations");
 
-    // in order to compute sol.timeAcc
-    // we need to use objective function
-    ttp.objective(sol);
-
+    // vectors are up to date (see objective(s, from))
     return sol;
   }
 
@@ -540,6 +574,7 @@ public abstract class LocalSearch extends SearchHeuristic {
     double minSpeed = ttp.getMinSpeed();
     long capacity = ttp.getCapacity();
     double C = (maxSpeed - minSpeed) / capacity;
+    DistanceOracle D = ttp.getDist();
 
     // initial solution data
     int[] tour;
@@ -598,7 +633,7 @@ public abstract class LocalSearch extends SearchHeuristic {
             c1 = TwoOptHelper.get2optValue(q, tour, i, j) - 1;
             c2 = TwoOptHelper.get2optValue((q + 1) % nbCities, tour, i, j) - 1;
 
-            deltaT += -sol.timeRec[q] + ttp.distFor(c1,c2) / (maxSpeed - wc * C);
+            deltaT += -sol.timeRec[q] + D.dist(c1,c2) / (maxSpeed - wc * C);
           }
 
           // retrieve neighbor's final time
@@ -626,10 +661,11 @@ public abstract class LocalSearch extends SearchHeuristic {
       if (improved) {
 
         // apply 2-opt move
-        TwoOptHelper.do2opt(tour, iBest, jBest);
+        TwoOptHelper.do2opt(sol, D, iBest, jBest);
 
         // evaluate & update vectors
-        ttp.objective(sol);
+        // (from the first changed edge)
+        ttp.objective(sol, iBest-1);
       }
 
       // debug msg
@@ -642,13 +678,105 @@ public abstract class LocalSearch extends SearchHeuristic {
     } while (improved && nbIter<maxIterTSKP);
 
 
-    // in order to compute sol.timeAcc
-    // we need to use objective function
-    ttp.objective(sol);
+    // vectors are up to date (see objective(s, from))
     return sol;
   }
 
 
+  /**
+   * best single bit-flip, by weight classes
+   *
+   * for a weight delta, one reverse pass over the tour gives the suffix
+   * times of every position; these sums are rounded differently from the
+   * forward evaluation, so the flips that may be the best one given the
+   * rounding error bound are evaluated again exactly
+   *
+   * @return the best item (the smallest on ties) if it improves GBest, -1 otherwise
+   */
+  private int bestFlipByWeight(TTPSolution sol, int[] byWeight, double GBest,
+                               double[] suffix, double[] approxG, SuffixKernel kernel) {
+    int nbCities = ttp.getNbCities();
+    int nbItems = ttp.getNbItems();
+    int[] A = ttp.getAvailability();
+    int[] pickingPlan = sol.getPickingPlan();
+    double maxSpeed = ttp.getMaxSpeed();
+    double C = (maxSpeed - ttp.getMinSpeed()) / ttp.getCapacity();
+    double R = ttp.getRent();
+    long[] weightAcc = sol.weightAcc;
+    long[] edgeLen = sol.edgeLen;
+
+    // approximate objective of each flip (NaN: not feasible)
+    double bestA = -Double.MAX_VALUE;
+    double maxFt = 0;
+    long maxFp = 0;
+    for (int i = 0, j; i < nbItems; i = j) {
+      long w = ttp.weightOf(byWeight[i]);
+      for (j = i; j < nbItems && ttp.weightOf(byWeight[j]) == w; j++);
+
+      // class +w (items to pick) and -w (picked items)
+      for (int sign = 1; sign >= -1; sign -= 2) {
+        int from = nbCities;
+        for (int t = i; t < j; t++) {
+          int k = byWeight[t];
+          if ((pickingPlan[k] == 0) == (sign > 0)) {
+            from = Math.min(from, sol.mapCI[A[k] - 1]);
+          }
+        }
+        if (from == nbCities || (sign > 0 && w > sol.wend)) {
+          for (int t = i; t < j; t++) {
+            int k = byWeight[t];
+            if ((pickingPlan[k] == 0) == (sign > 0)) approxG[k] = Double.NaN;
+          }
+          continue;
+        }
+
+        long deltaW = sign * w;
+        double sum = 0;
+        for (int r = nbCities - 1; r >= from; r--) {
+          sum += edgeLen[r] / (maxSpeed - (weightAcc[r] + deltaW) * C);
+          suffix[r] = sum;
+        }
+        for (int t = i; t < j; t++) {
+          int k = byWeight[t];
+          if ((pickingPlan[k] == 0) != (sign > 0)) continue;
+          int p = sol.mapCI[A[k] - 1];
+          double ft = (p == 0 ? 0 : sol.timeAcc[p - 1]) + suffix[p];
+          long fp = sol.fp + sign * ttp.profitOf(k);
+          approxG[k] = fp - ft * R;
+          bestA = Math.max(bestA, approxG[k]);
+          maxFt = Math.max(maxFt, ft);
+          maxFp = Math.max(maxFp, Math.abs(fp));
+        }
+      }
+    }
+
+    // rounding error bound of both sums (a few ulps per term)
+    double bound = 4.0 * (nbCities + 4) * Math.ulp(1.0) * (maxFt * R + maxFp);
+    if (bestA + bound <= GBest) return -1;
+
+    // exact evaluation of the flips that may be the best one
+    double threshold = Math.max(bestA - 2 * bound, GBest - bound);
+    int kBest = -1;
+    double GBestExact = GBest;
+    for (int k = 0; k < nbItems; k++) {
+      if (!(approxG[k] >= threshold)) continue;
+      long deltaP = pickingPlan[k] == 0 ? ttp.profitOf(k) : -ttp.profitOf(k);
+      long deltaW = pickingPlan[k] == 0 ? ttp.weightOf(k) : -ttp.weightOf(k);
+      double ft = kernel.finalTime(sol, sol.mapCI[A[k] - 1], deltaW, maxSpeed, C,
+        SuffixKernel.maxTime(sol.fp + deltaP, GBestExact, R));
+      double G = (sol.fp + deltaP) - ft * R;
+      if (G > GBestExact) {
+        kBest = k;
+        GBestExact = G;
+      }
+    }
+    return kBest;
+  }
+
+  // city moves of the bit-flip search
+  private static final int TAKE_ALL = -1;
+  private static final int DROP_ALL = -2;
+
   /**
    * bit-flip search
    *
@@ -665,6 +793,7 @@ public abstract class LocalSearch extends SearchHeuristic {
     double minSpeed = ttp.getMinSpeed();
     long capacity = ttp.getCapacity();
     double C = (maxSpeed - minSpeed) / capacity;
+    DistanceOracle D = ttp.getDist();
     double R = ttp.getRent();
 
     // initial solution data
@@ -672,7 +801,7 @@ public abstract class LocalSearch extends SearchHeuristic {
     int[] pickingPlan = sol.getPickingPlan();
 
     // delta parameters
-    int deltaP, deltaW;
+    long deltaP, deltaW;
 
     // best solution
     double GBest = sol.ob;
@@ -680,10 +809,60 @@ public abstract class LocalSearch extends SearchHeuristic {
     // neighbor solution
     long fp;
     double ft, G;
-    long wc;
     int origBF;
-    int k, r, kBest=0;
+    int k, kBest=0;
     int nbIter = 0;
+    // first position of stale rec vectors
+    int dirty = nbCities;
+
+    // moves of a city, evaluated together (see SuffixKernel.finalTimes):
+    // its items, and with city moves, take all / drop all
+    int[] clusteredItems = ttp.getClusteredItems();
+    boolean cityMoves = Config.get().bitFlipCityMoves;
+    int maxMoves = 2;
+    for (int i = 0; i < nbCities; i++) {
+      maxMoves = Math.max(maxMoves, ttp.clusterEnd(i) - ttp.clusterBegin(i) + 2);
+    }
+    int[] moveItem = new int[maxMoves];
+    long[] moveP = new long[maxMoves];
+    long[] moveW = new long[maxMoves];
+    double[] moveFt = new double[maxMoves];
+    double[] moveMax = new double[maxMoves];
+    // best move: item kBest or group (TAKE_ALL / DROP_ALL) at position pBest
+    int pBest = 0, groupBest = 0;
+
+    // screening of the flips (see FlipMoments)
+    int order = Config.get().bitFlipMomentOrder;
+    FlipMoments moments = order > 0 ? new FlipMoments(nbCities, order) : null;
+    if (moments != null) moments.update(sol, 0, maxSpeed, C);
+
+    // suffix evaluation (see SuffixKernel)
+    SuffixKernel kernel = new SuffixKernel(nbCities);
+    kernel.update(sol);
+
+    // few distinct weights (ex. similar weights instances):
+    // flips grouped by weight, see bestFlipByWeight
+    int[] byWeight = null;
+    double[] suffix = null, approxG = null;
+    if (!firstfit && !cityMoves) {
+      long[] keys = new long[nbItems];
+      for (k = 0; k < nbItems; k++) {
+        keys[k] = ((long) ttp.weightOf(k) << 32) | k;
+      }
+      Arrays.sort(keys);
+      int nbWeights = 0;
+      for (k = 0; k < nbItems; k++) {
+        if (k == 0 || keys[k] >>> 32 != keys[k-1] >>> 32) nbWeights++;
+      }
+      if (8 * nbWeights < nbItems) {
+        byWeight = new int[nbItems];
+        for (k = 0; k < nbItems; k++) {
+          byWeight[k] = (int) keys[k];
+        }
+        suffix = new double[nbCities];
+        approxG = new double[nbItems];
+      }
+    }
 
     boolean improved;
 
@@ -692,87 +871,203 @@ public abstract class LocalSearch extends SearchHeuristic {
       improved = false;
       nbIter++;
 
-      // browse items in the new order...
-      for (k = 0; k < nbItems; k++) {
+      if (firstfit) {
+        // browse items in the new order...
+        for (k = 0; k < nbItems; k++) {
 
-        // cleanup and stop execution if interrupted
-        if (Thread.currentThread().isInterrupted()) break;
+          // cleanup and stop execution if interrupted
+          if (Thread.currentThread().isInterrupted()) break;
 
-        // check if new weight doesn't exceed knapsack capacity
-        if (pickingPlan[k] == 0 && ttp.weightOf(k) > sol.wend) continue;
+          // check if new weight doesn't exceed knapsack capacity
+          if (pickingPlan[k] == 0 && ttp.weightOf(k) > sol.wend) continue;
 
-        // calculate deltaP and deltaW
-        if (pickingPlan[k] == 0) {
-          deltaP = ttp.profitOf(k);
-          deltaW = ttp.weightOf(k);
-        } else {
-          deltaP = -ttp.profitOf(k);
-          deltaW = -ttp.weightOf(k);
-        }
-        fp = sol.fp + deltaP;
+          // calculate deltaP and deltaW
+          if (pickingPlan[k] == 0) {
+            deltaP = ttp.profitOf(k);
+            deltaW = ttp.weightOf(k);
+          } else {
+            deltaP = -ttp.profitOf(k);
+            deltaW = -ttp.weightOf(k);
+          }
+          fp = sol.fp + deltaP;
 
 
-        // index where Bit-Flip happened
-        origBF = sol.mapCI[A[k] - 1];
+          // index where Bit-Flip happened
+          origBF = sol.mapCI[A[k] - 1];
 
-        // starting time
-        ft = origBF == 0 ? 0 : sol.timeAcc[origBF - 1];
+          // skip the flips that can't improve
+          if (moments != null
+            && FlipMoments.upperObjective(fp, moments.lowerTime(kernel.startTime(sol, origBF, maxSpeed, C), origBF, deltaW), R) <= GBest) continue;
 
-        // recalculate velocities from bit-flip city
-        for (r = origBF; r < nbCities; r++) {
-          wc = sol.weightAcc[r] + deltaW;
-          ft += ttp.distFor(tour[r]-1,tour[(r + 1) % nbCities] - 1) / (maxSpeed - wc * C);
-        }
+          // recalculate velocities from bit-flip city
+          // (up to the largest time that may improve)
+          ft = kernel.finalTime(sol, origBF, deltaW, maxSpeed, C, SuffixKernel.maxTime(fp, GBest, R));
 
-        G = fp - ft * R;
+          G = fp - ft * R;
 
-        // update best
-        if (G > GBest) {
-          kBest = k;
-          GBest = G;
+          // update best
+          if (G > GBest) {
+            kBest = k;
+            GBest = G;
 
+            improved = true;
+            if (firstfit) break;
+          }
+
+        } // END FOR k
+      }
+      else if (byWeight != null) {
+        // best improvement, one suffix pass per weight
+        k = bestFlipByWeight(sol, byWeight, GBest, suffix, approxG, kernel);
+        if (k >= 0) {
+          kBest = k;
+          groupBest = 0;
           improved = true;
-          if (firstfit) break;
         }
+      }
+      else {
+        // best improvement, one suffix pass per city
+        // (ties go to the smallest item, as when browsing the items in order)
+        for (int p = 0; p < nbCities; p++) {
+
+          // cleanup and stop execution if interrupted
+          if (Thread.currentThread().isInterrupted()) break;
+
+          int city = tour[p] - 1;
+          int nb = 0;
+          long takeP = 0, dropP = 0, dropW = 0;
+          int nbTake = 0, nbDrop = 0;
+          for (int t = ttp.clusterBegin(city), end = ttp.clusterEnd(city); t < end; t++) {
+            k = clusteredItems[t];
+            if (pickingPlan[k] == 0) {
+              takeP += ttp.profitOf(k);
+              nbTake++;
+              // check if new weight doesn't exceed knapsack capacity
+              if (ttp.weightOf(k) > sol.wend) continue;
+              moveP[nb] = ttp.profitOf(k);
+              moveW[nb] = ttp.weightOf(k);
+            } else {
+              dropP += ttp.profitOf(k);
+              dropW += ttp.weightOf(k);
+              nbDrop++;
+              moveP[nb] = -ttp.profitOf(k);
+              moveW[nb] = -ttp.weightOf(k);
+            }
+            moveItem[nb++] = k;
+          }
+          if (cityMoves) {
+            // (the weight left at the city)
+            long takeW = ttp.cityWeightOf(city) - dropW;
+            if (nbTake > 1 && takeW <= sol.wend) {
+              moveP[nb] = takeP;
+              moveW[nb] = takeW;
+              moveItem[nb++] = TAKE_ALL;
+            }
+            if (nbDrop > 1) {
+              moveP[nb] = -dropP;
+              moveW[nb] = -dropW;
+              moveItem[nb++] = DROP_ALL;
+            }
+          }
+          // skip the moves that can't improve
+          // (or tie: a smaller item may replace the best one)
+          if (moments != null) {
+            int nbKept = 0;
+            double t0 = kernel.startTime(sol, p, maxSpeed, C);
+            for (int q = 0; q < nb; q++) {
+              double upper = FlipMoments.upperObjective(sol.fp + moveP[q], moments.lowerTime(t0, p, moveW[q]), R);
+              if (upper < GBest) continue;
+              moveP[nbKept] = moveP[q];
+              moveW[nbKept] = moveW[q];
+              moveItem[nbKept++] = moveItem[q];
+            }
+            nb = nbKept;
+          }
+          if (nb == 0) continue;
 
-      } // END FOR k
-
+          // (up to the largest times that may improve or tie)
+          for (int q = 0; q < nb; q++) {
+            moveMax[q] = SuffixKernel.maxTime(sol.fp + moveP[q], GBest, R);
+          }
+          kernel.finalTimes(sol, p, moveW, nb, maxSpeed, C, moveMax, moveFt);
+
+          for (int q = 0; q < nb; q++) {
+            fp = sol.fp + moveP[q];
+            G = fp - moveFt[q] * R;
+            k = moveItem[q];
+
+            // update best
+            if (G > GBest || (G == GBest && improved && k >= 0 && groupBest == 0 && k < kBest)) {
+              if (k >= 0) {
+                kBest = k;
+                groupBest = 0;
+              } else {
+                groupBest = k;
+              }
+              pBest = p;
+              GBest = G;
+
+              improved = true;
+            }
+          }
+        } // END FOR p
+      }
 
       //=====================================
       // update if improvement
       //=====================================
       if (improved) {
 
-        // bit-flip
-        pickingPlan[kBest] = pickingPlan[kBest] != 0 ? 0 : A[kBest];
+        if (groupBest == 0) {
+          // bit-flip
+          pickingPlan[kBest] = pickingPlan[kBest] != 0 ? 0 : A[kBest];
+
+          if (pickingPlan[kBest] != 0) {
+            deltaP = ttp.profitOf(kBest);
+            deltaW = ttp.weightOf(kBest);
+          } else {
+            deltaP = -ttp.profitOf(kBest);
+            deltaW = -ttp.weightOf(kBest);
+          }
+          origBF = sol.mapCI[A[kBest] - 1];
+        } else {
+          // take / drop all the items of a city
+          int city = tour[pBest] - 1;
+          deltaP = 0;
+          deltaW = 0;
+          for (int t = ttp.clusterBegin(city), end = ttp.clusterEnd(city); t < end; t++) {
+            k = clusteredItems[t];
+            if (groupBest == TAKE_ALL && pickingPlan[k] == 0) {
+              pickingPlan[k] = A[k];
+              deltaP += ttp.profitOf(k);
+              deltaW += ttp.weightOf(k);
+            } else if (groupBest == DROP_ALL && pickingPlan[k] != 0) {
+              pickingPlan[k] = 0;
+              deltaP -= ttp.profitOf(k);
+              deltaW -= ttp.weightOf(k);
+            }
+          }
+          origBF = pBest;
+          groupBest = 0;
+        }
 
 
         //===========================================================
         // recover accumulation vectors
         //===========================================================
-        if (pickingPlan[kBest] != 0) {
-          deltaP = ttp.profitOf(kBest);
-          deltaW = ttp.weightOf(kBest);
-        } else {
-          deltaP = -ttp.profitOf(kBest);
-          deltaW = -ttp.weightOf(kBest);
-        }
         fp = sol.fp + deltaP;
-        origBF = sol.mapCI[A[kBest] - 1];
-        ft = origBF == 0 ? 0 : sol.timeAcc[origBF - 1];
-        for (r = origBF; r < nbCities; r++) {
-          // recalculate velocities from bit-flip city
-          wc = sol.weightAcc[r] + deltaW;
-          ft += ttp.distFor(tour[r] - 1, tour[(r + 1) % nbCities] - 1) / (maxSpeed - wc * C);
-          // recover wacc and tacc
-          sol.weightAcc[r] = wc;
-          sol.timeAcc[r] = ft;
-        }
+        dirty = Math.min(dirty, origBF);
+        // recalculate velocities from bit-flip city,
+        // recover wacc and tacc
+        kernel.apply(origBF, deltaW);
+        ft = kernel.sync(sol, maxSpeed, C);
         G = fp - ft * R;
+        GBest = G;
         sol.ob = G;
         sol.fp = fp;
         sol.ft = ft;
         sol.wend = capacity - sol.weightAcc[nbCities - 1];
+        if (moments != null) moments.apply(origBF, deltaW);
         //===========================================================
 
         // debug msg
@@ -789,7 +1084,8 @@ public abstract class LocalSearch extends SearchHeuristic {
     if (debug) Deb.echo("==> bitflip :" + nbIter + " iterations");
 
     // in order to recover all history vectors
-    ttp.objective(sol);
+    // (from the first flipped city)
+    ttp.objective(sol, dirty);
 
     return sol;
   }
@@ -1,9 +1,15 @@
 package solver;
 
+import ttp.DistanceOracle;
 import ttp.TTP1Instance;
 import ttp.TTPSolution;
+import utils.Config;
 import utils.Deb;
+import utils.FlipMoments;
+import utils.InsertionHelper;
+import utils.ItemSampler;
 import utils.RandGen;
+import utils.SuffixKernel;
 
 /**
  Original source code: https://github.com/yafrani/ttplab
@@ -19,6 +25,8 @@ public class SAVI extends LocalSearch {
   public double T0;           // initial temperature
   public double alpha;       // cooling rate
   public double trialFactor; // number of trials (per temperature)
+  public int viTrialsPerCity; // vertex insertion trials (per temperature)
+  public int viTrialsBudget;
 
 
   public SAVI() {
@@ -35,18 +43,22 @@ public class SAVI extends LocalSearch {
 
 
   // SA params config
-  // default config
+  // default config (see Config)
   void SAConfig() {
 
     int nbItems = ttp.getNbItems();
+    Config conf = Config.get();
 
-    T_abs = 1;
+    T_abs = conf.Tabs;
 //    T0 = 100.0;
 //    alpha = 0.95;
-    alpha=0.9578;
-    T0=98;
+    alpha = conf.alpha;
+    T0 = conf.T0;
 
-    trialFactor = generateTFLinFit(nbItems);
+    trialFactor = conf.trialFactor > 0 ? conf.trialFactor : generateTFLinFit(nbItems);
+
+    viTrialsPerCity = conf.viTrialsPerCity;
+    viTrialsBudget = conf.viTrialsBudget;
   }
 
 
@@ -69,6 +81,7 @@ public class SAVI extends LocalSearch {
     double minSpeed = ttp.getMinSpeed();
     long capacity = ttp.getCapacity();
     double C = (maxSpeed - minSpeed) / capacity;
+    DistanceOracle D = ttp.getDist();
     double R = ttp.getRent();
 
     // initial solution data
@@ -84,15 +97,29 @@ public class SAVI extends LocalSearch {
     // neighbor solution
     long fp;
     double ft, G;
-    long wc;
     int origBF;
-    int k, r;
+    int k;
     int nbIter = 0;
+    // first position of stale rec vectors (working and best solution)
+    int dirty = nbCities, bestDirty = nbCities;
+
+    // screening of the flips (see FlipMoments)
+    int order = Config.get().bitFlipMomentOrder;
+    FlipMoments moments = order > 0 ? new FlipMoments(nbCities, order) : null;
+    if (moments != null) moments.update(sol, 0, maxSpeed, C);
+
+    // suffix evaluation (see SuffixKernel)
+    SuffixKernel kernel = new SuffixKernel(nbCities);
+    kernel.update(sol);
+
+    // items to flip (see ItemSampler)
+    ItemSampler sampler = new ItemSampler(ttp, sol, Config.get().saSampler);
 
     double T = T0;
     long trials = Math.round(nbItems*trialFactor);
 
     if (debug) Deb.echo(">>>> TRIAL FACTOR: "+trialFactor);
+    long startTime = System.nanoTime();
 
     //===============================================
     // start simulated annealing process
@@ -103,10 +130,14 @@ public class SAVI extends LocalSearch {
       // cleanup and stop execution if interrupted
       if (Thread.currentThread().isInterrupted()) break;
 
-      for (int u=0; u<trials; u++) {
+      for (long u=0; u<trials; u++) {
 
         // browse items randomly
-        k = RandGen.randInt(0, nbItems - 1);
+        k = sampler.next(sol.wend);
+        if (k < 0) break;
+        // (the rejected draws the sampler saved are trials too)
+        u += sampler.skipped();
+        if (u >= trials) break;
 
         // check if new weight doesn't exceed knapsack capacity
         if (pickingPlan[k] == 0 && ttp.weightOf(k) > sol.wend) continue;
@@ -124,14 +155,19 @@ public class SAVI extends LocalSearch {
         // handle velocity constraint
         // index where Bit-Flip happened
         origBF = sol.mapCI[A[k] - 1];
-        // starting time
-        ft = origBF == 0 ? .0 : sol.timeAcc[origBF - 1];
-        // recalculate velocities from bit-flip city
-        // to recover objective value
-        for (r = origBF; r < nbCities; r++) {
-          wc = sol.weightAcc[r] + deltaW;
-          ft += ttp.distFor(tour[r] - 1, tour[(r + 1) % nbCities] - 1) / (maxSpeed - wc * C);
+
+        // skip the flips that can't be accepted
+        double mu = RandGen.random().nextDouble();
+        if (moments != null) {
+          double upper = FlipMoments.upperObjective(fp, moments.lowerTime(kernel.startTime(sol, origBF, maxSpeed, C), origBF, deltaW), R);
+          if (upper <= GBest && Math.exp((upper - GBest) / T) <= mu) continue;
         }
+
+        // recalculate velocities from bit-flip city
+        // to recover objective value, up to the largest
+        // acceptable time: G - GBest > T*ln(mu)
+        double ftMax = SuffixKernel.maxTime(fp, GBest + T * Math.log(mu) * (1 + 1e-9), R);
+        ft = kernel.finalTime(sol, origBF, deltaW, maxSpeed, C, ftMax);
         // compute recovered objective value
         G = fp - ft * R;
 
@@ -139,7 +175,6 @@ public class SAVI extends LocalSearch {
         // update if improvement or
         // Boltzmann condition satisfied
         //=====================================
-        double mu = Math.random();
         double energy_gap = G - GBest;
         boolean acceptance = energy_gap > 0 || Math.exp(energy_gap / T) > mu;
         if (acceptance) {
@@ -148,6 +183,7 @@ public class SAVI extends LocalSearch {
 
           // bit-flip
           pickingPlan[k] = pickingPlan[k] != 0 ? 0 : A[k];
+          sampler.flip(k);
 
           //===========================================================
           // recover accumulation vectors
@@ -161,20 +197,16 @@ public class SAVI extends LocalSearch {
           }
           fp = sol.fp + deltaP;
           origBF = sol.mapCI[A[k] - 1];
-          ft = origBF == 0 ? 0 : sol.timeAcc[origBF - 1];
-          for (r = origBF; r < nbCities; r++) {
-            // recalculate velocities from bit-flip city
-            wc = sol.weightAcc[r] + deltaW;
-            ft += ttp.distFor(tour[r] - 1, tour[(r + 1) % nbCities] - 1) / (maxSpeed - wc * C);
-            // recover wacc and tacc
-            sol.weightAcc[r] = wc;
-            sol.timeAcc[r] = ft;
-          }
+          dirty = Math.min(dirty, origBF);
+          // recover wacc and tacc, lazily (see SuffixKernel)
+          // ft is already known: accepted flips are evaluated in full
+          kernel.apply(origBF, deltaW);
           G = fp - ft * R;
           sol.ob = G;
           sol.fp = fp;
           sol.ft = ft;
-          sol.wend = capacity - sol.weightAcc[nbCities - 1];
+          sol.wend = capacity - kernel.totalWeight();
+          if (moments != null) moments.apply(origBF, deltaW);
           //===========================================================
 
         }
@@ -184,6 +216,7 @@ public class SAVI extends LocalSearch {
       // update best if improvement
       if (sol.ob > sBest.ob) {
         sBest = sol.clone();
+        bestDirty = dirty;
       }
 
       if (this.debug) {
@@ -197,16 +230,25 @@ public class SAVI extends LocalSearch {
       // stop when temperature reach absolute value
     } while (T > T_abs);
 
+    kernel.sync(sol, maxSpeed, C);
+
+    if (debug) {
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      Deb.echo(">>>> KRP trials/s: " + String.format("%.0f", nbIter * trials / seconds)
+        + " (" + Config.get().saSampler + ")");
+    }
 
     // in order to recover all history vector
-    ttp.objective(sBest);
+    ttp.objective(sBest, bestDirty);
 
     return sBest;
   }
 
   public TTPSolution TSPSimulatedAnnealing(TTPSolution sol) {
     // copy initial solution into improved solution
+    // (the tour of the working copy is changed in place)
     TTPSolution sBest = sol.clone();
+    sol = sol.clone();
     long profitFinal = sol.fp;
 
     // TTP data
@@ -217,15 +259,14 @@ public class SAVI extends LocalSearch {
     double minSpeed = ttp.getMinSpeed();
     long capacity = ttp.getCapacity();
     double C = (maxSpeed - minSpeed) / capacity;
+    DistanceOracle D = ttp.getDist();
     double R = ttp.getRent();
 
     // initial solution data
-    int[] tour = sol.getTour();
-    int[] pickingPlan = sol.getPickingPlan();
-
+    // (edge lengths must be up to date)
     long [] weightRec = new long[nbCities];
     for (int i = 0; i < nbCities; i++){
-      int city = tour[i] - 1;
+      int city = sol.getTour()[i] - 1;
       weightRec[city] = sol.weightRec[i];
     }
 
@@ -235,13 +276,15 @@ public class SAVI extends LocalSearch {
     // best solution
     double GBest = sol.ob;
 
-    int c1, c2, c3, c4;
+    int c1, c3;
     long weight, c1Weight, c2Weight, c3Weight;
     int nbIter = 0;
+    // first position of stale vectors (working and best solution)
+    int dirty = nbCities, bestDirty = nbCities;
 
     double T = T0;
     // 6762000
-    int trials = Math.min(nbCities * 10, (12762000 / nbCities));
+    int trials = Math.min(nbCities * viTrialsPerCity, (viTrialsBudget / nbCities));
 //    int trials = nbCities;
 //    System.out.println("nbCites: "+nbCities+", trials: "+trials);
 
@@ -260,127 +303,91 @@ public class SAVI extends LocalSearch {
 
         int pos_i = RandGen.randInt(1, nbCities - 1);
 
-        int[] newTour = sol.getTour().clone();
-
-        int pos = pos_i;
-        while (pos > 1) {
-          int temp = newTour[pos];
-          newTour[pos] = newTour[pos - 1];
-          newTour[pos - 1] = temp;
-          pos -= 1;
+        // the city at pos_i is moved to position 1 and then slid
+        // towards the end of the tour, the other cities keep
+        // their order: rest(k) is the k-th of them, and the edges
+        // between them are the solution's edges except the one
+        // bridging the gap left at pos_i
+        int[] tour = sol.getTour();
+        long[] edgeLen = sol.edgeLen;
+        int last = nbCities - 1;
+        int city = tour[pos_i] - 1;
+        long cityWeight = weightRec[city];
+        long bridge = D.dist(tour[pos_i - 1] - 1, tour[(pos_i + 1) % nbCities] - 1);
+
+        // distances from the moved city to rest(j-2), rest(j-1) and rest(j)
+        long d1 = D.dist(city, restCity(tour, pos_i, 0) - 1);
+        long d2 = D.dist(city, restCity(tour, pos_i, 1 % last) - 1);
+        long d3;
+
+        // travel time with the city at position 1
+        long new_weight = weightRec[tour[0] - 1];
+        double ft = d1 / (maxSpeed - new_weight * C);
+        new_weight += cityWeight;
+        ft += d2 / (maxSpeed - new_weight * C);
+        for (int i = 2; i < nbCities; i++){
+          new_weight += weightRec[restCity(tour, pos_i, i - 1) - 1];
+          ft += restEdge(edgeLen, pos_i, bridge, i - 1) / (maxSpeed - new_weight * C);
         }
-
-        TTPSolution newSolution = new TTPSolution(newTour, pickingPlan);
-//        ttp.objective(newSolution);
-        long new_weight = 0;
-        newSolution.ft = 0;
-        for (int i = 0; i < nbCities; i++){
-          int city = newTour[i] - 1;
-          int nextCity = newTour[(i + 1) % nbCities] - 1;
-          new_weight += weightRec[city];
-//          if (city == 0) System.out.println("weightRec = "+weightRec[city]);
-          newSolution.weightRec[i] = weightRec[city];
-          newSolution.weightAcc[i] += (i == 0 ? 0 : newSolution.weightAcc[i - 1]) + weightRec[city];
-          newSolution.ft += ttp.distFor(city, nextCity) / (maxSpeed - new_weight * C);
-//          newSolution.weightAcc[i] = new_weight;
-        }
-        newSolution.ob = profitFinal - R * newSolution.ft;
-        double tempBestZ = newSolution.ob;
+        double tempBestZ = profitFinal - R * ft;
         double posBestZ = 1;
-        double[] time = new double[nbCities];
-//        int[] newTour = newTour.clone();
 
-        time[1] = newSolution.ft;
+        double time = ft;
         weight = 0;
         for (int j = 2; j < nbCities; j++){
-          time[j] = time[j - 1];
-
-          c1 = (j == 2 ? 0 : j - 1);
-          c1 = j - 2;
-
-          c2 = 1;
-          c2 = j - 1;
-
-          c3 = j;
-          c3 = j;
-
-          c4 = (j + 1) % nbCities;
-//          System.out.println(j);
-//          System.out.println(c1+" "+c2+" "+c3+" "+c4);
+          // before: c1 c2 c3 c4 (c2 is the moved city)
+          c1 = restCity(tour, pos_i, j - 2) - 1;
+          c3 = restCity(tour, pos_i, j - 1) - 1;
+          d3 = D.dist(city, restCity(tour, pos_i, j % last) - 1);
 
           // UPDATE
           // Lost time
-          // before: c1 c2 c3 c4
           // c1 -> c2
-//          c1Weight = (c1 > 0 ? (newSolution.weightAcc[c1] - newSolution.weightAcc[c1 - 1] + weight) : 0);
-          c1Weight =  weightRec[newTour[c1] - 1] + weight;
-          time[j] -= ttp.distFor(newTour[c1] - 1, newTour[c2] - 1) / (maxSpeed - c1Weight * C);
+          c1Weight =  weightRec[c1] + weight;
+          time -= d1 / (maxSpeed - c1Weight * C);
           // c2 -> c3
-//          c2Weight = newSolution.weightAcc[c2] - newSolution.weightAcc[c2 - 1] + c1Weight;
-          c2Weight =  weightRec[newTour[c2] - 1] + c1Weight;
-          time[j] -= ttp.distFor(newTour[c2] - 1, newTour[c3] - 1) / (maxSpeed - c2Weight * C);
+          c2Weight =  cityWeight + c1Weight;
+          time -= d2 / (maxSpeed - c2Weight * C);
           // c3 -> c4
-//          c3Weight = newSolution.weightAcc[c3] - newSolution.weightAcc[c3 - 1] + c2Weight;
-          c3Weight =  weightRec[newTour[c3] - 1] + c2Weight;
-          time[j] -= ttp.distFor(newTour[c3] - 1, newTour[c4] - 1) / (maxSpeed - c3Weight * C);
+          c3Weight =  weightRec[c3] + c2Weight;
+          time -= restEdge(edgeLen, pos_i, bridge, j - 1) / (maxSpeed - c3Weight * C);
 
 
           // Extra time
           // after:  c1 c3 c2 c4
           // c1 -> c3
-          time[j] += ttp.distFor(newTour[c1] - 1, newTour[c3] - 1) / (maxSpeed - c1Weight * C);
+          time += restEdge(edgeLen, pos_i, bridge, j - 2) / (maxSpeed - c1Weight * C);
           // c3 -> c2
-//          c3Weight = newSolution.weightAcc[c3] - newSolution.weightAcc[c3 - 1] + c1Weight;
-          c3Weight = weightRec[newTour[c3] - 1] + c1Weight;
-          time[j] += ttp.distFor(newTour[c3] - 1, newTour[c2] - 1) / (maxSpeed - c3Weight * C);
+          c3Weight = weightRec[c3] + c1Weight;
+          time += d2 / (maxSpeed - c3Weight * C);
           // c2 -> c4
-//          c2Weight = newSolution.weightAcc[c2] - newSolution.weightAcc[c2 - 1] + c3Weight;
-          c2Weight = weightRec[newTour[c2] - 1] + c3Weight;
-          time[j] += ttp.distFor(newTour[c2] - 1, newTour[c4] - 1) / (maxSpeed - c2Weight * C);
+          c2Weight = cityWeight + c3Weight;
+          time += d3 / (maxSpeed - c2Weight * C);
 
           // update c1Weight after swap(c2, c3)
           weight = c1Weight;
+          d1 = d2;
+          d2 = d3;
 
-          int temp_ = newTour[j - 1];
-          newTour[j - 1] = newTour[j];
-          newTour[j] = temp_;
-
-          double presentZ = profitFinal - ttp.getRent() * time[j];
+          double presentZ = profitFinal - R * time;
           if (tempBestZ < presentZ){
             tempBestZ = presentZ;
             posBestZ = j;
           }
         }
 
-        double mu = Math.random();
+        double mu = RandGen.random().nextDouble();
         double energy_gap = tempBestZ - GBest;
         boolean acceptance = energy_gap > 0 || Math.exp(energy_gap / T) > mu;
         if (acceptance) {
-//          newTour = sBest.getTour().clone();
-          newTour = sol.getTour().clone();
-          pos = pos_i;
-          while (pos > posBestZ) {
-            int temp = newTour[pos];
-            newTour[pos] = newTour[pos - 1];
-            newTour[pos - 1] = temp;
-            pos -= 1;
-          }
-          while (pos < posBestZ) {
-            int temp = newTour[pos];
-            newTour[pos] = newTour[pos + 1];
-            newTour[pos + 1] = temp;
-            pos += 1;
-          }
+          InsertionHelper.doInsertion(sol, D, pos_i, (int) posBestZ);
+          dirty = Math.min(dirty, Math.min(pos_i, (int) posBestZ) - 1);
           GBest = tempBestZ;
-          sol = new TTPSolution(newTour, pickingPlan);
-//           ttp.objective(sol);
           new_weight = 0;
           sol.ft = 0;
           for (int i = 0; i < nbCities; i++){
-            int city = newTour[i] - 1;
-            int nextCity = newTour[(i + 1) % nbCities] - 1;
-            new_weight += weightRec[city];
-            sol.ft += ttp.distFor(city, nextCity) / (maxSpeed - new_weight * C);
+            new_weight += weightRec[tour[i] - 1];
+            sol.ft += edgeLen[i] / (maxSpeed - new_weight * C);
             sol.weightAcc[i] = new_weight;
           }
           sol.ob = profitFinal - R * sol.ft;
@@ -391,6 +398,7 @@ public class SAVI extends LocalSearch {
       if (sol.ob > sBest.ob) {
 //        System.out.println("TSPSA: "+sol.ob);
         sBest = sol.clone();
+        bestDirty = dirty;
         //solution = ttp.evaluate(tour, pickingPlan, true);
       }
 
@@ -401,30 +409,68 @@ public class SAVI extends LocalSearch {
     } while (T > T_abs);
 
     // in order to recover all history vector
-    ttp.objective(sBest);
+    ttp.objective(sBest, bestDirty);
 
     return sBest;
   }
 
+  /**
+   * k-th city of the tour without tour[pos]
+   */
+  private static int restCity(int[] tour, int pos, int k) {
+    return k < pos ? tour[k] : tour[k + 1];
+  }
+
+  /**
+   * k-th edge of the tour without tour[pos],
+   * bridge is the edge replacing the two edges of tour[pos]
+   */
+  private static long restEdge(long[] edgeLen, int pos, long bridge, int k) {
+    if (k < pos - 1) return edgeLen[k];
+    if (k == pos - 1) return bridge;
+    return edgeLen[k + 1];
+  }
+
+  /**
+   * Lin-Kernighan tour with a pre-processed knapsack
+   */
+  public TTPSolution initialSolution() {
+    Constructive construct = new Constructive(ttp);
+    // use Lin-Kernighan to initialize the tour
+    TTPSolution s = new TTPSolution(
+            construct.linkernTour(),
+            construct.zerosPickingPlan()
+    );
+
+    // pre-process the knapsack
+    // insert and eliminate items
+    if (ttp.getNbCities() < 30000) s = insertAndEliminate(s);
+    else s = insertT2(s);
+    ttp.objective(s);
+    //System.out.println(s.ob);
+    return s;
+  }
+
+  /**
+   * everything the search needs before it starts
+   * (initial solution and Delaunay candidates),
+   * can be done ahead of time, see BatchCLI
+   */
+  public void prepare() {
+    if (s0==null) {
+      s0 = initialSolution();
+    }
+    candidates();
+  }
+
+
   @Override
   public TTPSolution search() {
     //===============================================
     // generate initial solution
     //===============================================
     if (s0==null) {
-      Constructive construct = new Constructive(ttp);
-      // use Lin-Kernighan to initialize the tour
-      s0 = new TTPSolution(
-              construct.linkernTour(),
-              construct.zerosPickingPlan()
-      );
-
-      // pre-process the knapsack
-      // insert and eliminate items
-      if (ttp.getNbCities() < 30000) s0 = insertAndEliminate(s0);
-      else s0 = insertT2(s0);
-      ttp.objective(s0);
-      //System.out.println(s0.ob);
+      s0 = initialSolution();
 //      s0 = lsBitFlip(s0);
 
 //      Initialization init = new Initialization(ttp);
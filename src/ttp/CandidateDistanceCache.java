@@ -0,0 +1,52 @@
+package ttp;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * distances of candidate edges (ex. Delaunay) stored per city,
+ * other distances are computed from the coordinates
+ *
+ * tour edges are mostly candidate edges, so the local search
+ * rarely computes a square root
+ *
+ * @author kyu
+ */
+public final class CandidateDistanceCache extends DistanceOracle {
+
+  // candidates of city i: neighbors[start[i]..start[i+1]-1] (sorted)
+  private final int[] start;
+  private final int[] neighbors;
+  private final int[] distances;
+  private final DistanceOracle fallback;
+
+  public CandidateDistanceCache(Set<Integer>[] candidates, DistanceOracle fallback) {
+    int n = candidates.length;
+    this.fallback = fallback;
+    this.start = new int[n+1];
+    for (int i=0; i<n; i++) {
+      start[i+1] = start[i] + candidates[i].size();
+    }
+    this.neighbors = new int[start[n]];
+    this.distances = new int[start[n]];
+    for (int i=0; i<n; i++) {
+      int k = start[i];
+      for (int j : candidates[i]) {
+        neighbors[k++] = j;
+      }
+      Arrays.sort(neighbors, start[i], start[i+1]);
+      for (k=start[i]; k<start[i+1]; k++) {
+        distances[k] = (int) fallback.dist(i, neighbors[k]);
+      }
+    }
+  }
+
+  @Override
+  public long dist(int i, int j) {
+    for (int k=start[i], end=start[i+1]; k<end; k++) {
+      if (neighbors[k] == j) return distances[k];
+      if (neighbors[k] > j) break;
+    }
+    return fallback.dist(i, j);
+  }
+}
@@ -0,0 +1,91 @@
+package ttp;
+
+import java.util.Arrays;
+
+/**
+ * city orders used to relabel an instance
+ *
+ * an order lists the (0-based) cities in their new numbering,
+ * the first city always stays first
+ *
+ * @author kyu
+ */
+final class CityOrder {
+
+  // Hilbert curve grid: 2^16 x 2^16 cells
+  private static final int HILBERT_BITS = 16;
+
+  private CityOrder() {
+  }
+
+
+  /**
+   * order of a tour (file's 1-based ids)
+   *
+   * @return null if there is no tour or it doesn't start with the first city
+   */
+  static int[] fromTour(int[] tour) {
+    if (tour == null || tour[0] != 1) return null;
+    int[] order = new int[tour.length];
+    for (int j=0; j<tour.length; j++) {
+      order[j] = tour[j] - 1;
+    }
+    return order;
+  }
+
+
+  /**
+   * cities along a Hilbert curve over the bounding box
+   */
+  static int[] hilbert(double[] xs, double[] ys) {
+    int n = xs.length;
+    double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+    double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+    for (int i=0; i<n; i++) {
+      minX = Math.min(minX, xs[i]);
+      maxX = Math.max(maxX, xs[i]);
+      minY = Math.min(minY, ys[i]);
+      maxY = Math.max(maxY, ys[i]);
+    }
+    int side = 1 << HILBERT_BITS;
+    double scale = (side - 1) / Math.max(1e-9, Math.max(maxX - minX, maxY - minY));
+
+    // curve index in the high bits, city in the low bits
+    long[] keys = new long[n-1];
+    for (int i=1; i<n; i++) {
+      int x = (int) ((xs[i] - minX) * scale);
+      int y = (int) ((ys[i] - minY) * scale);
+      keys[i-1] = (hilbertIndex(side, x, y) << 31) | i;
+    }
+    Arrays.sort(keys);
+
+    int[] order = new int[n];
+    for (int k=1; k<n; k++) {
+      order[k] = (int) (keys[k-1] & Integer.MAX_VALUE);
+    }
+    return order;
+  }
+
+  /**
+   * position of cell (x, y) on the Hilbert curve of a side x side grid
+   */
+  private static long hilbertIndex(int side, int x, int y) {
+    long d = 0;
+    for (int s=side/2; s>0; s/=2) {
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      d += (long) s * s * ((3 * rx) ^ ry);
+      // rotate the quadrant
+      if (ry == 0) {
+        if (rx == 1) {
+          x = side-1 - x;
+          y = side-1 - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+}
@@ -0,0 +1,84 @@
+package ttp;
+
+/**
+ * CEIL_2D distances computed on the fly
+ *
+ * coordinates are kept in two contiguous arrays (x and y),
+ * in single precision when no coordinate loses precision
+ *
+ * @author kyu
+ */
+public abstract class CoordinateDistance extends DistanceOracle {
+
+  /**
+   * CEIL_2D distance kernel
+   * (same arithmetic as CityCoordinates.distanceEuclid)
+   */
+  static long ceil2D(double x1, double y1, double x2, double y2) {
+    double P = x1 - x2;
+    double Q = y1 - y2;
+    return (long)Math.ceil(Math.sqrt(P*P + Q*Q));
+  }
+
+  /**
+   * on-the-fly distances over the given coordinates
+   *
+   * @param useFloat store the coordinates on 32 bits if it is lossless
+   */
+  public static CoordinateDistance of(double[] xs, double[] ys, boolean useFloat) {
+    if (useFloat && Floats.isExact(xs) && Floats.isExact(ys)) {
+      return new Floats(xs, ys);
+    }
+    return new Doubles(xs, ys);
+  }
+
+
+  /**
+   * double precision coordinates
+   */
+  public static final class Doubles extends CoordinateDistance {
+    private final double[] xs;
+    private final double[] ys;
+
+    Doubles(double[] xs, double[] ys) {
+      this.xs = xs;
+      this.ys = ys;
+    }
+
+    @Override
+    public long dist(int i, int j) {
+      return ceil2D(xs[i], ys[i], xs[j], ys[j]);
+    }
+  }
+
+
+  /**
+   * single precision coordinates (half the cache footprint),
+   * arithmetic is still done in double precision
+   */
+  public static final class Floats extends CoordinateDistance {
+    private final float[] xs;
+    private final float[] ys;
+
+    Floats(double[] xs, double[] ys) {
+      this.xs = new float[xs.length];
+      this.ys = new float[ys.length];
+      for (int i=0; i<xs.length; i++) {
+        this.xs[i] = (float) xs[i];
+        this.ys[i] = (float) ys[i];
+      }
+    }
+
+    @Override
+    public long dist(int i, int j) {
+      return ceil2D(xs[i], ys[i], xs[j], ys[j]);
+    }
+
+    static boolean isExact(double[] v) {
+      for (double x : v) {
+        if ((double)(float) x != x) return false;
+      }
+      return true;
+    }
+  }
+}
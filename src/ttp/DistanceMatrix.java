@@ -0,0 +1,216 @@
+package ttp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * symmetric distance matrix
+ *
+ * only the strict lower triangle is stored, row after row:
+ * d(i,j) with j<i is at i*(i-1)/2 + j
+ *
+ * storage is 16 bits per distance when all distances fit,
+ * 32 bits otherwise
+ *
+ * @author kyu
+ */
+public abstract class DistanceMatrix extends DistanceOracle {
+
+  // largest distance stored on 16 bits
+  static final long MAX_SHORT = 0xFFFF;
+
+  // number of entries under which a block is filled sequentially
+  private static final int MIN_BLOCK = 1 << 15;
+
+  protected final int n;
+
+  protected DistanceMatrix(int n) {
+    this.n = n;
+  }
+
+  /**
+   * number of bytes used per distance
+   */
+  public abstract int bytesPerEntry();
+
+  public int getNbCities() {
+    return n;
+  }
+
+  /**
+   * number of stored distances
+   */
+  public static long nbEntries(int n) {
+    return (long) n * (n-1) / 2;
+  }
+
+  /**
+   * position of d(i,j) in the triangle, i>j
+   */
+  static int index(int i, int j) {
+    return (int) (((long) i * (i-1)) >>> 1) + j;
+  }
+
+  /**
+   * same, for triangles of more than 2^31 entries
+   */
+  static long longIndex(int i, int j) {
+    return (((long) i * (i-1)) >>> 1) + j;
+  }
+
+  /**
+   * memory needed by the matrix of n cities,
+   * the actual storage depends on the coordinates
+   */
+  public static long bytesFor(double[] xs, double[] ys) {
+    return nbEntries(xs.length) * (maxDistance(xs, ys) <= MAX_SHORT ? 2 : 4);
+  }
+
+
+  /**
+   * compute the CEIL_2D distance matrix (fork/join over row blocks)
+   */
+  public static DistanceMatrix compute(double[] xs, double[] ys) {
+    int n = xs.length;
+    if (nbEntries(n) > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("too many cities for a distance matrix: " + n);
+    }
+
+    if (maxDistance(xs, ys) <= MAX_SHORT) {
+      short[] d = new short[(int) nbEntries(n)];
+      ForkJoinPool.commonPool().invoke(new Fill(xs, ys, d, null, 1, n));
+      return new Packed16(n, d);
+    }
+    int[] d = new int[(int) nbEntries(n)];
+    ForkJoinPool.commonPool().invoke(new Fill(xs, ys, null, d, 1, n));
+    return new Packed32(n, d);
+  }
+
+  /**
+   * matrix from a lower triangle (same layout)
+   */
+  public static DistanceMatrix fromTriangle(int n, int[] triangle) {
+    long max = 0;
+    for (int v : triangle) {
+      max = Math.max(max, v);
+    }
+    if (max > MAX_SHORT) {
+      return new Packed32(n, triangle);
+    }
+    short[] d = new short[triangle.length];
+    for (int k=0; k<d.length; k++) {
+      d[k] = (short) triangle[k];
+    }
+    return new Packed16(n, d);
+  }
+
+
+  /**
+   * upper bound of all distances: the bounding box diagonal
+   */
+  static long maxDistance(double[] xs, double[] ys) {
+    if (xs.length == 0) return 0;
+    double minX = xs[0], maxX = minX;
+    double minY = ys[0], maxY = minY;
+    for (int i=0; i<xs.length; i++) {
+      minX = Math.min(minX, xs[i]);
+      maxX = Math.max(maxX, xs[i]);
+      minY = Math.min(minY, ys[i]);
+      maxY = Math.max(maxY, ys[i]);
+    }
+    return CoordinateDistance.ceil2D(minX, minY, maxX, maxY);
+  }
+
+
+  /**
+   * fill rows [lo, hi) of the triangle
+   *
+   * rows get longer with i, blocks are split so that
+   * both halves hold the same number of entries
+   */
+  private static final class Fill extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final double[] xs, ys;
+    private final short[] d16;
+    private final int[] d32;
+    private final int lo, hi;
+
+    Fill(double[] xs, double[] ys, short[] d16, int[] d32, int lo, int hi) {
+      this.xs = xs;
+      this.ys = ys;
+      this.d16 = d16;
+      this.d32 = d32;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo > 1 && index(hi, 0) - index(lo, 0) > MIN_BLOCK) {
+        int mid = (int) Math.sqrt(((double) lo*lo + (double) hi*hi) / 2);
+        mid = Math.max(lo+1, Math.min(hi-1, mid));
+        invokeAll(new Fill(xs, ys, d16, d32, lo, mid), new Fill(xs, ys, d16, d32, mid, hi));
+        return;
+      }
+      for (int i=lo; i<hi; i++) {
+        int k = index(i, 0);
+        double xi = xs[i], yi = ys[i];
+        for (int j=0; j<i; j++, k++) {
+          long v = CoordinateDistance.ceil2D(xi, yi, xs[j], ys[j]);
+          if (d16 != null) d16[k] = (short) v;
+          else d32[k] = (int) v;
+        }
+      }
+    }
+  }
+
+
+  /**
+   * 16 bits storage (unsigned)
+   */
+  public static final class Packed16 extends DistanceMatrix {
+    private final short[] d;
+
+    Packed16(int n, short[] d) {
+      super(n);
+      this.d = d;
+    }
+
+    @Override
+    public long dist(int i, int j) {
+      if (i > j) return d[index(i, j)] & 0xFFFF;
+      if (i < j) return d[index(j, i)] & 0xFFFF;
+      return 0;
+    }
+
+    @Override
+    public int bytesPerEntry() {
+      return 2;
+    }
+  }
+
+
+  /**
+   * 32 bits storage
+   */
+  public static final class Packed32 extends DistanceMatrix {
+    private final int[] d;
+
+    Packed32(int n, int[] d) {
+      super(n);
+      this.d = d;
+    }
+
+    @Override
+    public long dist(int i, int j) {
+      if (i > j) return d[index(i, j)];
+      if (i < j) return d[index(j, i)];
+      return 0;
+    }
+
+    @Override
+    public int bytesPerEntry() {
+      return 4;
+    }
+  }
+}
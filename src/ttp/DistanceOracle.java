@@ -0,0 +1,67 @@
+package ttp;
+
+import utils.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * distances between cities (0-based)
+ *
+ * the implementation is chosen once per instance, hot loops keep
+ * a local reference to it so the call site stays monomorphic
+ *
+ * @author kyu
+ */
+public abstract class DistanceOracle {
+
+  /**
+   * instances with more cities never use an in-heap matrix
+   */
+  public static final int MATRIX_MAX_CITIES = 20000;
+
+  /**
+   * distance between cities i and j
+   */
+  public abstract long dist(int i, int j);
+
+
+  /**
+   * choose the distance oracle of a set of cities
+   *
+   * the packed matrix is used when it takes at most half
+   * of the available heap, distances are computed
+   * from the coordinates otherwise
+   */
+  public static DistanceOracle forCoordinates(double[] xs, double[] ys) {
+    return forCoordinates(xs, ys, null);
+  }
+
+  /**
+   * same, with an on-disk matrix (memory-mapped)
+   * in place of on-the-fly distances
+   *
+   * @param distFile distance file of these cities (null: none)
+   */
+  public static DistanceOracle forCoordinates(double[] xs, double[] ys, File distFile) {
+    if (xs.length < MATRIX_MAX_CITIES && DistanceMatrix.bytesFor(xs, ys) <= availableHeap()/2) {
+      return DistanceMatrix.compute(xs, ys);
+    }
+    if (distFile != null) {
+      try {
+        return MappedDistanceMatrix.open(distFile, xs, ys);
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+    return CoordinateDistance.of(xs, ys, "float".equals(Config.get().coordinates));
+  }
+
+  /**
+   * heap that can still be allocated
+   */
+  static long availableHeap() {
+    Runtime rt = Runtime.getRuntime();
+    return rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+  }
+}
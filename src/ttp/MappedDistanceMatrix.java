@@ -0,0 +1,224 @@
+package ttp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * distance matrix read from a memory-mapped file
+ *
+ * same triangle layout as DistanceMatrix, little endian,
+ * the pages are shared with every process mapping the same file
+ *
+ * files larger than 2 GB are mapped in segments of 1 GB
+ * (entries never cross a segment boundary)
+ *
+ * distance file (.dist), one per TSP instance:
+ *   header : magic, version, #cities, bytes per entry, coordinates hash
+ *   matrix : lower triangle, 16 or 32 bits per distance
+ *
+ * @author kyu
+ */
+public final class MappedDistanceMatrix extends DistanceOracle {
+
+  public static final String EXTENSION = ".dist";
+
+  private static final int MAGIC = 0x54534944; // "DIST"
+  private static final int VERSION = 1;
+  private static final int HEADER = 64;
+
+  // 1 GB segments
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+  // number of entries under which a block is filled sequentially
+  private static final int MIN_BLOCK = 1 << 15;
+
+  private final ByteBuffer[] segments;
+  private final long offset;
+  private final boolean packed16;
+
+  /**
+   * @param buf mapped file (32 bits distances)
+   * @param offset position of d(1,0)
+   */
+  MappedDistanceMatrix(ByteBuffer buf, int offset) {
+    this(segments(buf), offset, 4);
+  }
+
+  private MappedDistanceMatrix(ByteBuffer[] segments, long offset, int bytesPerEntry) {
+    this.segments = segments;
+    this.offset = offset;
+    this.packed16 = bytesPerEntry == 2;
+  }
+
+  @Override
+  public long dist(int i, int j) {
+    if (i == j) return 0;
+    long k = i > j ? DistanceMatrix.longIndex(i, j) : DistanceMatrix.longIndex(j, i);
+    if (packed16) {
+      long pos = offset + 2*k;
+      return segments[(int) (pos >>> SEGMENT_SHIFT)].getShort((int) (pos & SEGMENT_MASK)) & 0xFFFF;
+    }
+    long pos = offset + 4*k;
+    return segments[(int) (pos >>> SEGMENT_SHIFT)].getInt((int) (pos & SEGMENT_MASK));
+  }
+
+  public int bytesPerEntry() {
+    return packed16 ? 2 : 4;
+  }
+
+
+  /**
+   * map the distance file of a set of cities,
+   * the file is (re)built if missing or out of date
+   *
+   * the file is written next to its final location and then moved,
+   * concurrent processes never see a partial file
+   */
+  public static MappedDistanceMatrix open(File file, double[] xs, double[] ys) throws IOException {
+    if (!isUpToDate(file, xs, ys)) {
+      build(file, xs, ys);
+    }
+    try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer[] segments = map(ch, FileChannel.MapMode.READ_ONLY, ch.size());
+      return new MappedDistanceMatrix(segments, HEADER, segments[0].getInt(12));
+    }
+  }
+
+  /**
+   * the file holds the distances of these cities
+   */
+  private static boolean isUpToDate(File file, double[] xs, double[] ys) throws IOException {
+    if (!file.isFile() || file.length() < HEADER) return false;
+    ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+    try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      while (header.hasRemaining() && ch.read(header) >= 0);
+    }
+    int bpe = header.getInt(12);
+    return header.getInt(0) == MAGIC
+      && header.getInt(4) == VERSION
+      && header.getInt(8) == xs.length
+      && (bpe == 2 || bpe == 4)
+      && header.getLong(16) == coordinatesHash(xs, ys)
+      && file.length() >= HEADER + bpe*DistanceMatrix.nbEntries(xs.length);
+  }
+
+  private static void build(File file, double[] xs, double[] ys) throws IOException {
+    int n = xs.length;
+    int bpe = DistanceMatrix.maxDistance(xs, ys) <= DistanceMatrix.MAX_SHORT ? 2 : 4;
+    long size = HEADER + bpe*DistanceMatrix.nbEntries(n);
+
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (dir != null) dir.mkdirs();
+    File tmpFile = new File(file.getPath() + ".tmp" + ProcessHandle.current().pid());
+    try (FileChannel ch = FileChannel.open(tmpFile.toPath(),
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+      StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+      ByteBuffer[] segments = map(ch, FileChannel.MapMode.READ_WRITE, size);
+      ForkJoinPool.commonPool().invoke(new Fill(xs, ys, segments, bpe, 1, n));
+
+      ByteBuffer header = segments[0];
+      header.putInt(0, MAGIC);
+      header.putInt(4, VERSION);
+      header.putInt(8, n);
+      header.putInt(12, bpe);
+      header.putLong(16, coordinatesHash(xs, ys));
+      for (ByteBuffer s : segments) {
+        ((MappedByteBuffer) s).force();
+      }
+    }
+    Files.move(tmpFile.toPath(), file.toPath(),
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+
+  //===================================
+  // helpers
+  //===================================
+
+  static long coordinatesHash(double[] xs, double[] ys) {
+    return 31L * Arrays.hashCode(xs) + Arrays.hashCode(ys);
+  }
+
+  /**
+   * map a file in 1 GB segments
+   */
+  private static ByteBuffer[] map(FileChannel ch, FileChannel.MapMode mode, long size) throws IOException {
+    int nb = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    ByteBuffer[] segments = new ByteBuffer[Math.max(1, nb)];
+    for (int s=0; s<segments.length; s++) {
+      long start = (long) s << SEGMENT_SHIFT;
+      segments[s] = ch.map(mode, start, Math.min(SEGMENT_MASK+1, size-start)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return segments;
+  }
+
+  /**
+   * 1 GB views of a buffer
+   */
+  private static ByteBuffer[] segments(ByteBuffer buf) {
+    int size = buf.limit();
+    int nb = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    ByteBuffer[] segments = new ByteBuffer[Math.max(1, nb)];
+    for (int s=0; s<segments.length; s++) {
+      int start = s << SEGMENT_SHIFT;
+      ByteBuffer d = buf.duplicate();
+      d.limit((int) Math.min((long) start + SEGMENT_MASK + 1, size));
+      d.position(start);
+      segments[s] = d.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return segments;
+  }
+
+
+  /**
+   * fill rows [lo, hi) of the triangle (see DistanceMatrix)
+   */
+  private static final class Fill extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final double[] xs, ys;
+    private final ByteBuffer[] segments;
+    private final int bpe;
+    private final int lo, hi;
+
+    Fill(double[] xs, double[] ys, ByteBuffer[] segments, int bpe, int lo, int hi) {
+      this.xs = xs;
+      this.ys = ys;
+      this.segments = segments;
+      this.bpe = bpe;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo > 1 && DistanceMatrix.nbEntries(hi) - DistanceMatrix.nbEntries(lo) > MIN_BLOCK) {
+        int mid = (int) Math.sqrt(((double) lo*lo + (double) hi*hi) / 2);
+        mid = Math.max(lo+1, Math.min(hi-1, mid));
+        invokeAll(new Fill(xs, ys, segments, bpe, lo, mid), new Fill(xs, ys, segments, bpe, mid, hi));
+        return;
+      }
+      for (int i=lo; i<hi; i++) {
+        long pos = HEADER + bpe*DistanceMatrix.nbEntries(i);
+        double xi = xs[i], yi = ys[i];
+        for (int j=0; j<i; j++, pos+=bpe) {
+          long v = CoordinateDistance.ceil2D(xi, yi, xs[j], ys[j]);
+          ByteBuffer s = segments[(int) (pos >>> SEGMENT_SHIFT)];
+          if (bpe == 2) s.putShort((int) (pos & SEGMENT_MASK), (short) v);
+          else s.putInt((int) (pos & SEGMENT_MASK), (int) v);
+        }
+      }
+    }
+  }
+}
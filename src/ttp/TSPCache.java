@@ -0,0 +1,298 @@
+package ttp;
+
+import utils.Config;
+import utils.FileHelper;
+import utils.GraphHelper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * data that depends only on the TSP part of an instance,
+ * shared by all the instances of a map (ex. a280-ttp/*.ttp)
+ *
+ *   distances, Delaunay candidates : per map and city numbering
+ *   Lin-Kernighan tour             : per map (file's numbering)
+ *
+ * tspcache=memory: computed once per process, entries are softly
+ * referenced (dropped by the GC under memory pressure)
+ * tspcache=disk: the Delaunay candidates are also kept in distdir
+ * (<tsp>[-relabel].del), distance files are kept with distmatrix=mmap
+ *
+ * @author kyu
+ */
+public final class TSPCache {
+
+  public static final String DELAUNAY_EXTENSION = ".del";
+
+  // Delaunay file:
+  //   header : magic, version, #cities, #neighbors, coordinates hash
+  //   start  : #cities+1 ints, neighbors of city i are [start[i], start[i+1])
+  //   neighbors (in the candidate sets' iteration order)
+  private static final int MAGIC = 0x414c4544; // "DELA"
+  private static final int VERSION = 1;
+  private static final int HEADER = 32;
+
+  private static final Map<String, SoftReference<Entry>> entries = new HashMap<>();
+  private static final Map<String, SoftReference<int[]>> tours = new HashMap<>();
+
+  /**
+   * cached data of a map and city numbering
+   */
+  private static final class Entry {
+    final long hash;
+    final int nbCities;
+    // separate locks: distances and candidates can be built at once
+    final Object distLock = new Object();
+    final Object candidatesLock = new Object();
+    DistanceOracle dist;
+    HashSet<Integer>[] candidates;
+
+    Entry(long hash, int nbCities) {
+      this.hash = hash;
+      this.nbCities = nbCities;
+    }
+  }
+
+  private TSPCache() {
+  }
+
+
+  /**
+   * name of the data files of an instance's map and city numbering
+   */
+  static String mapName(TTPData ttp) {
+    return ttp.tspName + (ttp.cityLabel == null ? "" : "-" + Config.get().relabel);
+  }
+
+  /**
+   * distances between the cities of an instance
+   *
+   * @param distFile distance file (null: none), see DistanceOracle
+   */
+  static DistanceOracle distances(TTPData ttp, File distFile) {
+    if (!isEnabled()) {
+      return DistanceOracle.forCoordinates(ttp.xs, ttp.ys, distFile);
+    }
+    Entry e = entry(ttp);
+    synchronized (e.distLock) {
+      if (e.dist == null) {
+        e.dist = DistanceOracle.forCoordinates(ttp.xs, ttp.ys, distFile);
+      }
+      return e.dist;
+    }
+  }
+
+  /**
+   * distances with the candidate edges stored per city
+   * (only on-the-fly distances are replaced)
+   */
+  static DistanceOracle withCandidates(TTPData ttp, HashSet<Integer>[] candidates, DistanceOracle dist) {
+    if (!(dist instanceof CoordinateDistance)) return dist;
+    if (!isEnabled()) {
+      return new CandidateDistanceCache(candidates, dist);
+    }
+    Entry e = entry(ttp);
+    synchronized (e.distLock) {
+      if (!(e.dist instanceof CandidateDistanceCache)) {
+        e.dist = new CandidateDistanceCache(candidates, dist);
+      }
+      return e.dist;
+    }
+  }
+
+  /**
+   * Delaunay candidates of an instance
+   * (the sets are shared and must not be modified)
+   */
+  static HashSet<Integer>[] candidates(TTPData ttp) {
+    if (!isEnabled()) {
+      return GraphHelper.delaunay(ttp.name, ttp.xs, ttp.ys);
+    }
+    Entry e = entry(ttp);
+    synchronized (e.candidatesLock) {
+      if (e.candidates == null) {
+        Config conf = Config.get();
+        File file = "disk".equals(conf.tspCache)
+          ? new File(conf.distDir, mapName(ttp) + DELAUNAY_EXTENSION) : null;
+        if (file != null) {
+          e.candidates = readCandidates(file, e.hash, e.nbCities);
+        }
+        if (e.candidates == null) {
+          e.candidates = GraphHelper.delaunay(ttp.name, ttp.xs, ttp.ys);
+          if (file != null && e.candidates != null) {
+            try {
+              writeCandidates(file, e.candidates, e.hash);
+            } catch (IOException ex) {
+              ex.printStackTrace();
+            }
+          }
+        }
+      }
+      return e.candidates;
+    }
+  }
+
+  /**
+   * Lin-Kernighan tour of a map (file's city ids, 1-based)
+   * the array is shared: callers work on a copy
+   *
+   * @return null if there is no valid tour
+   */
+  public static int[] lkTour(String tspName, int nbCities) {
+    if (!isEnabled()) {
+      return readTour(tspName, nbCities);
+    }
+    synchronized (tours) {
+      SoftReference<int[]> ref = tours.get(tspName);
+      int[] tour = ref == null ? null : ref.get();
+      if (tour == null || tour.length != nbCities) {
+        tour = readTour(tspName, nbCities);
+        if (tour == null) return null;
+        tours.put(tspName, new SoftReference<>(tour));
+      }
+      return tour;
+    }
+  }
+
+
+  //===================================
+  // helpers
+  //===================================
+
+  private static boolean isEnabled() {
+    return !"off".equals(Config.get().tspCache);
+  }
+
+  /**
+   * entry of an instance, replaced if the cities differ
+   */
+  private static Entry entry(TTPData ttp) {
+    String key = mapName(ttp);
+    long hash = MappedDistanceMatrix.coordinatesHash(ttp.xs, ttp.ys);
+    synchronized (entries) {
+      SoftReference<Entry> ref = entries.get(key);
+      Entry e = ref == null ? null : ref.get();
+      if (e == null || e.hash != hash || e.nbCities != ttp.nbCities) {
+        e = new Entry(hash, ttp.nbCities);
+        entries.put(key, new SoftReference<>(e));
+      }
+      return e;
+    }
+  }
+
+  /**
+   * TSPLIB tour file (TOUR_SECTION)
+   */
+  private static int[] readTour(String tspName, int nbCities) {
+    File file = new File(Config.get().lkTours, tspName + ".linkern.tour");
+    int[] tour = new int[nbCities];
+    boolean[] seen = new boolean[nbCities];
+    try (BufferedReader br = FileHelper.reader(file)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.startsWith("TOUR_SECTION")) {
+          for (int j=0; j<nbCities; j++) {
+            line = br.readLine();
+            if (line == null) return null;
+            int c = Integer.parseInt(line.trim());
+            if (c < 1 || c > nbCities || seen[c-1]) return null;
+            seen[c-1] = true;
+            tour[j] = c;
+          }
+          return tour;
+        }
+      }
+    } catch (IOException | NumberFormatException ex) {
+      return null;
+    }
+    return null;
+  }
+
+  /**
+   * candidates stored in a Delaunay file
+   *
+   * @return null if the file is missing or out of date
+   */
+  private static HashSet<Integer>[] readCandidates(File file, long hash, int nbCities) {
+    if (!file.isFile() || file.length() < HEADER) return null;
+    ByteBuffer buf;
+    try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+    } catch (IOException ex) {
+      return null;
+    }
+    int nb = buf.getInt(12);
+    if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+      || buf.getInt(8) != nbCities || buf.getLong(16) != hash
+      || buf.limit() != HEADER + 4L * (nbCities + 1 + nb)) {
+      return null;
+    }
+
+    // same insertion order: same iteration order
+    HashSet<Integer>[] candidates = newSets(nbCities);
+    int neighbors = HEADER + 4 * (nbCities + 1);
+    for (int i=0; i<nbCities; i++) {
+      candidates[i] = new HashSet<>();
+      for (int k=buf.getInt(HEADER + 4*i), end=buf.getInt(HEADER + 4*(i+1)); k<end; k++) {
+        candidates[i].add(buf.getInt(neighbors + 4*k));
+      }
+    }
+    return candidates;
+  }
+
+  // (no generic array creation in java)
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static HashSet<Integer>[] newSets(int n) {
+    return new HashSet[n];
+  }
+
+  private static void writeCandidates(File file, HashSet<Integer>[] candidates, long hash) throws IOException {
+    int n = candidates.length;
+    int nb = 0;
+    for (HashSet<Integer> c : candidates) {
+      nb += c.size();
+    }
+    ByteBuffer buf = ByteBuffer.allocate(HEADER + 4 * (n + 1 + nb)).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putInt(0, MAGIC);
+    buf.putInt(4, VERSION);
+    buf.putInt(8, n);
+    buf.putInt(12, nb);
+    buf.putLong(16, hash);
+    buf.position(HEADER);
+    int k = 0;
+    for (int i=0; i<n; i++) {
+      buf.putInt(k);
+      k += candidates[i].size();
+    }
+    buf.putInt(k);
+    for (HashSet<Integer> c : candidates) {
+      for (int j : c) {
+        buf.putInt(j);
+      }
+    }
+    buf.flip();
+
+    // written next to its final location and then moved
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (dir != null) dir.mkdirs();
+    File tmpFile = new File(file.getPath() + ".tmp" + ProcessHandle.current().pid());
+    try (FileChannel ch = FileChannel.open(tmpFile.toPath(),
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while (buf.hasRemaining()) ch.write(buf);
+    }
+    Files.move(tmpFile.toPath(), file.toPath(),
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -1,17 +1,13 @@
 package ttp;
 
-import utils.CityCoordinates;
-import utils.ConfigHelper;
+import utils.Config;
+import utils.Deb;
+import utils.FileHelper;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * TTP1 instance
@@ -28,7 +24,7 @@ public class TTP1Instance extends TTPInstance {
   /**
    * knapsack renting ratio per time unit
    */
-  protected double rent;
+  protected final double rent;
 
 
 
@@ -47,137 +43,113 @@ public class TTP1Instance extends TTPInstance {
    * @param fileName
    */
   public TTP1Instance(String fileName) {
-    //this.name = fileName;
+    this(load(fileName));
+  }
+
+  private TTP1Instance(TTPData d) {
+    super(d);
+    this.rent = d.rent;
+  }
+
+
+  /**
+   * everything the instance holds: file data (relabeled, clustered),
+   * distances and Delaunay candidates (computed in parallel)
+   */
+  private static TTPData load(String fileName) {
+    TTPData d = new TTPData();
+    //d.name = fileName;
     String[] sp = fileName.split("/", 2);
-    this.directory = sp[0];
-    this.name = sp[1];
-    String[] sp2 = directory.split("-", 2);
-    this.tspName = sp2[0];
-
-    String ttpData = ConfigHelper.getProperty("ttpdata");
-
-    this.ttpFile = new File(ttpData+fileName);
-
-
-    BufferedReader br = null;
-    
-    try {
-      br = new BufferedReader(new FileReader(this.ttpFile));
-      String line;
-      
-      while ((line = br.readLine()) != null) {
-        
-        // instance name
-        if (line.startsWith("PROBLEM NAME")) {
-          line = line.substring(line.indexOf(":")+1);
-          line = line.replaceAll("\\s+","");
-          //this.name = line;
-        }
-        
-        // KP data type
-        if (line.startsWith("KNAPSACK DATA TYPE")) {
-          line = line.substring(line.indexOf(":")+1);
-          line = line.replaceAll("\\s+","");
-          this.knapsackDataType = line;
-        }
-        
-        // number of cities
-        if (line.startsWith("DIMENSION")) {
-          // if (line.startsWith("NUMBER OF NODES")) {
-          line = line.substring(line.indexOf(":")+1);
-          line = line.replaceAll("\\s+","");
-          this.nbCities = Integer.parseInt(line);
-        }
-        
-        // number of items
-        if (line.startsWith("NUMBER OF ITEMS")) {
-          line = line.substring(line.indexOf(":")+1);
-          line = line.replaceAll("\\s+","");
-          this.nbItems = Integer.parseInt(line);
-        }
-        
-        // knapsack capacity
-        if (line.startsWith("CAPACITY OF KNAPSACK")) {
-          line = line.substring(line.indexOf(":")+1);
-          line = line.replaceAll("\\s+","");
-          this.capacity = Long.parseLong(line);
-        }
-        
-        // minimum velocity
-        if (line.startsWith("MIN SPEED")) {
-          line = line.substring(line.indexOf(":")+1);
-          line = line.replaceAll("\\s+","");
-          this.minSpeed = Double.parseDouble(line);
-        }
-        
-        // maximum velocity
-        if (line.startsWith("MAX SPEED")) {
-          line = line.substring(line.indexOf(":")+1);
-          line = line.replaceAll("\\s+","");
-          this.maxSpeed = Double.parseDouble(line);
-        }
-        
-        // rent
-        if (line.startsWith("RENTING RATIO")) {
-          line = line.substring(line.indexOf(":")+1);
-          line = line.replaceAll("\\s+","");
-          this.rent = Double.parseDouble(line);
-        }
-        
-      // edge weight
-        if (line.startsWith("EDGE_WEIGHT_TYPE")) {
-          line = line.substring(line.indexOf(":")+1);
-          line = line.replaceAll("\\s+","");
-          this.edgeWeightType = line;
-        }
-        
-        // nodes
-        if (line.startsWith("NODE_COORD_SECTION")) {
-          // coordinates
-          this.coordinates = new CityCoordinates[this.nbCities];
-          for (int i=0; i<this.nbCities; i++) {
-            line = br.readLine();
-            String[] parts = line.split("\\s+");
-            this.coordinates[i] = new CityCoordinates(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
-          }
-          
-          // distance matrix
-          if (nbCities < 10000) {
-            this.setDist(new long[this.nbCities][this.nbCities]);
-            for (int i = 0; i < nbCities; i++) {
-              for (int j = 0; j < nbCities; j++) {
-//                getDist()[i][j] = (long)Math.round(this.coordinates[i].distanceEuclid(this.coordinates[j]));
-                getDist()[i][j] = (long)Math.ceil(this.coordinates[i].distanceEuclid(this.coordinates[j]));
-                //System.out.println(this.coord[i] + "&" + this.coord[j] + "->" + dist[i][j]);
-              }
-            }
-          }
-        }
-        
-        // items
-        if (line.startsWith("ITEMS SECTION")) {
-          this.profits = new int[this.nbItems];
-          this.weights = new int[this.nbItems];
-          this.availability = new int[this.nbItems];
-          
-          for (int i=0; i<this.nbItems; i++) {
-            line = br.readLine();
-            String[] splittedLine = line.split("\\s+");
-            
-            this.profits[i] = Integer.parseInt(splittedLine[1]);
-            this.weights[i] = Integer.parseInt(splittedLine[2]);
-            this.availability[i] = Integer.parseInt(splittedLine[3]);
-          }
-        }
-        
-      } // end while
-      
-      br.close();
-      
-    } catch (IOException ex) {
-      ex.printStackTrace();
-    }
-    clusterItems();
+    d.directory = sp[0];
+    d.name = sp[1];
+    String[] sp2 = d.directory.split("-", 2);
+    d.tspName = sp2[0];
+
+    Config conf = Config.get();
+
+    // plain or compressed (.ttp.gz)
+    d.ttpFile = FileHelper.resolve(new File(conf.ttpData+fileName));
+
+    // use the precompiled instance if it is up to date
+    File binFile = TTPBinaryFile.binaryFileFor(d.ttpFile);
+    boolean binary = false;
+    if (!"off".equals(conf.ttpBinary)
+      && TTPBinaryFile.isUpToDate(binFile, d.ttpFile)) {
+      try {
+        TTPBinaryFile.read(d, binFile);
+        binary = true;
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+
+    if (!binary) {
+      try {
+        TTPFileReader.read(d, d.ttpFile);
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+
+    // precompile the instance for the next runs
+    // (in the file's numbering)
+    if (!binary && "write".equals(conf.ttpBinary)) {
+      d.clusterItems();
+      try {
+        TTPBinaryFile.write(d, binFile, null);
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+
+    // renumber cities for locality
+    if (!"off".equals(conf.relabel)) {
+      d.relabel(cityOrder(d, conf));
+    }
+
+    // distance matrix or on-the-fly distances, and Delaunay candidates
+    // (shared by the instances of the same map),
+    // built while the items are clustered
+    CompletableFuture<DistanceOracle> distances = null;
+    if (d.dist == null) {
+      File distFile = "mmap".equals(conf.distMatrix)
+        ? new File(conf.distDir, TSPCache.mapName(d) + MappedDistanceMatrix.EXTENSION) : null;
+      distances = CompletableFuture.supplyAsync(() -> TSPCache.distances(d, distFile));
+    }
+    CompletableFuture<HashSet<Integer>[]> candidates = null;
+    if (! System.getProperty("os.name").contains("Windows")) {
+      candidates = CompletableFuture.supplyAsync(() -> TSPCache.candidates(d));
+    }
+
+    if (d.clusterStart == null) {
+      d.clusterItems();
+    }
+
+    if (distances != null) {
+      d.dist = distances.join();
+    }
+    if (candidates != null) {
+      d.candidates = candidates.join();
+    }
+    // candidate edges' distances at hand
+    if (d.candidates != null) {
+      d.dist = TSPCache.withCandidates(d, d.candidates, d.dist);
+    }
+    return d;
+  }
+
+
+  /**
+   * new city order: Lin-Kernighan tour (lk) or Hilbert curve,
+   * the Hilbert curve is used when there is no LK tour
+   */
+  private static int[] cityOrder(TTPData d, Config conf) {
+    if ("lk".equals(conf.relabel)) {
+      int[] order = CityOrder.fromTour(TSPCache.lkTour(d.tspName, d.nbCities));
+      if (order != null) return order;
+      Deb.echo(d.tspName + ": no Lin-Kernighan tour, cities relabeled along a Hilbert curve");
+    }
+    return CityOrder.hilbert(d.xs, d.ys);
   }
 
 
@@ -197,6 +169,7 @@ public class TTP1Instance extends TTPInstance {
 
     double C = (maxSpeed-minSpeed)/capacity; // velocity const
     double velocity;
+    DistanceOracle D = dist;
 
     long acc;       // iteration weight accumulator
     long wc = 0;    // current weight
@@ -209,7 +182,8 @@ public class TTP1Instance extends TTPInstance {
     for (int i=0; i<this.nbCities; i++) {
       acc = 0;
       // check only items contained in current city
-      for (int j : clusters[ x[i]-1 ]) {
+      for (int t=clusterStart[x[i]-1], end=clusterStart[x[i]]; t<end; t++) {
+        int j = clusteredItems[t];
         if (z[j]!=0) {
           fp += profits[j];
           acc += weights[j];
@@ -220,13 +194,15 @@ public class TTP1Instance extends TTPInstance {
       velocity = maxSpeed - wc*C;
 
       int h = (i+1)%nbCities;
-      ft += distFor(x[i]-1,x[h]-1) / velocity;
+      long d = D.dist(x[i]-1, x[h]-1);
+      ft += d / velocity;
 
       // record important data for future use
       s.timeAcc[i] = ft;
-      s.timeRec[i] = distFor(x[i]-1, x[h]-1) / velocity;
+      s.timeRec[i] = d / velocity;
       s.weightAcc[i] = wc;
       s.weightRec[i] = acc;
+      s.edgeLen[i] = d;
 
       // map indices to their associated cities
       s.mapCI[x[i]-1] = i;
@@ -245,6 +221,72 @@ public class TTP1Instance extends TTPInstance {
     }
   }
 
+  /**
+   * objective function, evaluated from a tour position
+   *
+   * the tour and picked items before position from, and the
+   * vectors up to from-1, must be unchanged since the last evaluation,
+   * s.fp must be the profit of the current picking plan
+   * (tour moves keep it, bit-flips update it)
+   *
+   * same values as objective(s), bit for bit
+   *
+   * @param s the TTP solution
+   * @param from first modified position (ex. i-1 for a 2-opt move on [i..j])
+   */
+  public void objective(TTPSolution s, int from) {
+    if (from <= 0) {
+      objective(s);
+      return;
+    }
+    from = Math.min(from, nbCities);
+
+    int[] x = s.getTour();
+    int[] z = s.getPickingPlan();
+
+    double C = (maxSpeed-minSpeed)/capacity; // velocity const
+    double velocity;
+    DistanceOracle D = dist;
+
+    long acc;                         // iteration weight accumulator
+    long wc = s.weightAcc[from-1];    // current weight
+    double ft = s.timeAcc[from-1];    // tour time
+
+    // visit the cities from the first modified position
+    for (int i=from; i<this.nbCities; i++) {
+      acc = 0;
+      for (int t=clusterStart[x[i]-1], end=clusterStart[x[i]]; t<end; t++) {
+        int j = clusteredItems[t];
+        if (z[j]!=0) {
+          acc += weights[j];
+        }
+      }
+
+      wc += acc;
+      velocity = maxSpeed - wc*C;
+
+      int h = (i+1)%nbCities;
+      long d = D.dist(x[i]-1, x[h]-1);
+      ft += d / velocity;
+
+      s.timeAcc[i] = ft;
+      s.timeRec[i] = d / velocity;
+      s.weightAcc[i] = wc;
+      s.weightRec[i] = acc;
+      s.edgeLen[i] = d;
+
+      s.mapCI[x[i]-1] = i;
+    }
+
+    s.ft = ft;
+    s.wend = capacity-wc;
+    s.ob = s.fp - ft*rent;
+    if (wc > capacity) {
+      s.ob = -Double.MAX_VALUE;
+      System.out.println("Can nang vuot qua Capacity");
+    }
+  }
+
 
 
 
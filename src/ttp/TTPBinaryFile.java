@@ -0,0 +1,310 @@
+package ttp;
+
+import utils.Config;
+import utils.Deb;
+import utils.FileHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * precompiled (binary) TTP instance: .ttpb
+ *
+ * layout (little endian, sections aligned on 8 bytes):
+ *   header : magic, version, flags, knapsack type, edge weight type,
+ *            #cities, #items, capacity, min/max speed, renting ratio
+ *   cities : x[], y[]
+ *   items  : profits[], weights[], availability[]
+ *   clusters: start[#cities+1], items[#items] (as in TTPInstance)
+ *   matrix : (optional) lower triangle of the distance matrix, int,
+ *            row i holds d(i,0..i-1) (same layout as DistanceMatrix)
+ *
+ * the file is memory-mapped when loaded and the sections are copied
+ * in bulk into the instance arrays, a matrix too large for the heap
+ * is read in place (MappedDistanceMatrix)
+ *
+ * @author kyu
+ */
+public final class TTPBinaryFile {
+
+  public static final String EXTENSION = ".ttpb";
+
+  private static final int MAGIC = 0x42505454; // "TTPB"
+  private static final int VERSION = 1;
+
+  // flags
+  private static final int HAS_MATRIX = 1;
+
+  private TTPBinaryFile() {
+  }
+
+
+  /**
+   * binary file associated with a .ttp file
+   */
+  public static File binaryFileFor(File ttpFile) {
+    String path = ttpFile.getPath();
+    if (path.endsWith(FileHelper.GZIP_EXTENSION)) {
+      path = path.substring(0, path.length()-FileHelper.GZIP_EXTENSION.length());
+    }
+    if (path.endsWith(".ttp")) {
+      path = path.substring(0, path.length()-4);
+    }
+    return new File(path + EXTENSION);
+  }
+
+  /**
+   * the binary file can be used in place of the text file
+   * if it exists and is newer
+   */
+  public static boolean isUpToDate(File binFile, File ttpFile) {
+    return binFile.isFile() && binFile.lastModified() >= ttpFile.lastModified();
+  }
+
+
+  /**
+   * load a .ttpb file into instance data
+   */
+  static void read(TTPData ttp, File binFile) throws IOException {
+
+    MappedByteBuffer map;
+    try (FileChannel ch = FileChannel.open(binFile.toPath(), StandardOpenOption.READ)) {
+      map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    }
+    ByteBuffer buf = map.order(ByteOrder.LITTLE_ENDIAN);
+
+    if (buf.remaining() < 12 || buf.getInt() != MAGIC) {
+      throw new IOException(binFile + ": not a TTP binary file");
+    }
+    int version = buf.getInt();
+    if (version != VERSION) {
+      throw new IOException(binFile + ": unsupported version " + version);
+    }
+    int flags = buf.getInt();
+
+    ttp.knapsackDataType = getString(buf);
+    ttp.edgeWeightType = getString(buf);
+    int n = buf.getInt();
+    int m = buf.getInt();
+    ttp.nbCities = n;
+    ttp.nbItems = m;
+    ttp.capacity = buf.getLong();
+    ttp.minSpeed = buf.getDouble();
+    ttp.maxSpeed = buf.getDouble();
+    ttp.rent = buf.getDouble();
+    align(buf);
+
+    // cities
+    ttp.xs = getDoubles(buf, new double[n]);
+    ttp.ys = getDoubles(buf, new double[n]);
+
+    // items
+    ttp.profits = getInts(buf, new int[m]);
+    ttp.weights = getInts(buf, new int[m]);
+    ttp.availability = getInts(buf, new int[m]);
+
+    // clusters
+    ttp.clusterStart = getInts(buf, new int[n+1]);
+    ttp.clusteredItems = getInts(buf, new int[m]);
+
+    // distance matrix
+    // copied in the heap if there is room for it, used in place otherwise
+    if ((flags & HAS_MATRIX) != 0) {
+      long entries = DistanceMatrix.nbEntries(n);
+      if (n < DistanceOracle.MATRIX_MAX_CITIES && 4*entries <= DistanceOracle.availableHeap()/2) {
+        int[] triangle = getInts(buf, new int[(int) entries]);
+        ttp.dist = DistanceMatrix.fromTriangle(n, triangle);
+      }
+      else {
+        ttp.dist = new MappedDistanceMatrix(map, buf.position());
+      }
+    }
+  }
+
+
+  /**
+   * write instance data into a .ttpb file
+   *
+   * the file is written next to its final location and then moved,
+   * concurrent readers never see a partial file
+   *
+   * @param matrix distances to store (null: no matrix)
+   */
+  static void write(TTPData ttp, File binFile, DistanceOracle matrix) throws IOException {
+
+    if (ttp.cityLabel != null) {
+      throw new IOException(binFile + ": relabeled instances are not stored");
+    }
+
+    int n = ttp.nbCities;
+    int m = ttp.nbItems;
+    boolean withMatrix = matrix != null;
+    byte[] kpType = bytesOf(ttp.knapsackDataType);
+    byte[] ewType = bytesOf(ttp.edgeWeightType);
+
+    // distances must fit in an int
+    if (withMatrix) {
+      for (int i=1; i<n && withMatrix; i++) {
+        for (int j=0; j<i; j++) {
+          if (matrix.dist(i, j) > Integer.MAX_VALUE) {
+            withMatrix = false;
+            break;
+          }
+        }
+      }
+    }
+
+    // (upper bound, alignment included)
+    long size = 16
+      + padded(4 + kpType.length) + padded(4 + ewType.length)
+      + 8 + 8 + 3*8 + 8
+      + padded(16L*n)
+      + padded(4L*m)*3
+      + padded(4L*(n+1)) + padded(4L*m);
+    if (withMatrix && size + padded(4*DistanceMatrix.nbEntries(n)) > Integer.MAX_VALUE) {
+      Deb.echo(binFile + ": distance matrix too large, not stored");
+      withMatrix = false;
+    }
+    if (withMatrix) {
+      size += padded(4*DistanceMatrix.nbEntries(n));
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException(binFile + ": instance too large for the binary format");
+    }
+
+    File tmpFile = new File(binFile.getPath() + ".tmp" + ProcessHandle.current().pid());
+    try (FileChannel ch = FileChannel.open(tmpFile.toPath(),
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+      StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+      ByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+
+      buf.putInt(MAGIC);
+      buf.putInt(VERSION);
+      buf.putInt(withMatrix ? HAS_MATRIX : 0);
+      putString(buf, kpType);
+      putString(buf, ewType);
+      buf.putInt(n);
+      buf.putInt(m);
+      buf.putLong(ttp.capacity);
+      buf.putDouble(ttp.minSpeed);
+      buf.putDouble(ttp.maxSpeed);
+      buf.putDouble(ttp.rent);
+      align(buf);
+
+      // cities
+      putDoubles(buf, ttp.xs);
+      putDoubles(buf, ttp.ys);
+
+      // items
+      putInts(buf, ttp.profits);
+      putInts(buf, ttp.weights);
+      putInts(buf, ttp.availability);
+
+      // clusters
+      putInts(buf, ttp.clusterStart);
+      putInts(buf, ttp.clusteredItems);
+
+      // distance matrix
+      if (withMatrix) {
+        for (int i=1; i<n; i++) {
+          for (int j=0; j<i; j++) {
+            buf.putInt((int) matrix.dist(i, j));
+          }
+        }
+        align(buf);
+      }
+    }
+
+    Files.move(tmpFile.toPath(), binFile.toPath(),
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+
+  //===================================
+  // helpers
+  //===================================
+
+  private static long padded(long nbBytes) {
+    return (nbBytes + 7) & ~7L;
+  }
+
+  // padding bytes are left as mapped (zeros)
+  private static void align(ByteBuffer buf) {
+    buf.position((int) padded(buf.position()));
+  }
+
+  private static byte[] bytesOf(String s) {
+    return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void putString(ByteBuffer buf, byte[] s) {
+    buf.putInt(s.length);
+    buf.put(s);
+    align(buf);
+  }
+
+  private static String getString(ByteBuffer buf) {
+    byte[] s = new byte[buf.getInt()];
+    buf.get(s);
+    align(buf);
+    return new String(s, StandardCharsets.UTF_8);
+  }
+
+  private static void putInts(ByteBuffer buf, int[] a) {
+    buf.asIntBuffer().put(a);
+    buf.position(buf.position() + 4*a.length);
+    align(buf);
+  }
+
+  private static int[] getInts(ByteBuffer buf, int[] a) {
+    buf.asIntBuffer().get(a);
+    buf.position(buf.position() + 4*a.length);
+    align(buf);
+    return a;
+  }
+
+  private static void putDoubles(ByteBuffer buf, double[] a) {
+    buf.asDoubleBuffer().put(a);
+    buf.position(buf.position() + 8*a.length);
+  }
+
+  private static double[] getDoubles(ByteBuffer buf, double[] a) {
+    buf.asDoubleBuffer().get(a);
+    buf.position(buf.position() + 8*a.length);
+    return a;
+  }
+
+
+  /**
+   * convert .ttp instances into .ttpb files
+   * (file's numbering, distances only computed with -matrix)
+   *
+   * usage: TTPBinaryFile [-matrix] a280-ttp/a280_n279_bounded-strongly-corr_01.ttp ...
+   */
+  public static void main(String[] args) throws IOException {
+    boolean withMatrix = false;
+    for (String arg : args) {
+      if (arg.equals("-matrix")) {
+        withMatrix = true;
+        continue;
+      }
+      TTPData ttp = new TTPData();
+      ttp.ttpFile = FileHelper.resolve(new File(Config.get().ttpData + arg));
+      TTPFileReader.read(ttp, ttp.ttpFile);
+      ttp.clusterItems();
+      DistanceOracle matrix = withMatrix ? DistanceOracle.forCoordinates(ttp.xs, ttp.ys) : null;
+      File binFile = binaryFileFor(ttp.ttpFile);
+      write(ttp, binFile, matrix);
+      Deb.echo(binFile + ": " + binFile.length() + " bytes");
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package ttp;
+
+import java.io.File;
+import java.util.HashSet;
+
+/**
+ * instance data while it is loaded
+ *
+ * filled by the readers (text or binary file), relabeled and
+ * clustered, then copied into the final fields of a TTPInstance
+ *
+ * @author kyu
+ */
+final class TTPData {
+
+  String name;
+  String directory;
+  String tspName;
+  File ttpFile;
+
+  String knapsackDataType;
+  String edgeWeightType;
+  int nbCities;
+  int nbItems;
+  long capacity;
+  double minSpeed;
+  double maxSpeed;
+  double rent;
+
+  double[] xs;
+  double[] ys;
+  int[] availability;
+  int[] profits;
+  int[] weights;
+
+  // item clusters per city (see TTPInstance)
+  int[] clusterStart;
+  int[] clusteredItems;
+
+  // relabeling (see TTPInstance)
+  int[] cityLabel;
+  int[] itemLabel;
+  int[] cityIndex;
+
+  // distances: stored with the instance (binary file) or computed,
+  // null until then
+  DistanceOracle dist;
+  // Delaunay candidate graph (null if none)
+  HashSet<Integer>[] candidates;
+
+
+  /**
+   * organize items per city
+   */
+  void clusterItems() {
+
+    clusterStart = new int[nbCities+1];
+    clusteredItems = new int[nbItems];
+    int i;
+
+    // count items per city
+    for (i=0; i<nbItems; i++) {
+      clusterStart[ availability[i] ]++;
+    }
+    for (i=0; i<nbCities; i++) {
+      clusterStart[i+1] += clusterStart[i];
+    }
+    // fill clusters (items keep their order)
+    int[] next = new int[nbCities];
+    for (i=0; i<nbItems; i++) {
+      int c = availability[i]-1;
+      clusteredItems[ clusterStart[c] + next[c]++ ] = i;
+    }
+  }
+
+
+  /**
+   * renumber cities in the given order, items follow their cities
+   * (items of a city keep their relative order)
+   *
+   * distances and clusters must be (re)computed afterwards
+   *
+   * @param order original (0-based) city of each new id, order[0] = 0
+   */
+  void relabel(int[] order) {
+
+    cityLabel = order;
+    cityIndex = new int[nbCities];
+    for (int i=0; i<nbCities; i++) {
+      cityIndex[order[i]] = i;
+    }
+
+    double[] xs2 = new double[nbCities];
+    double[] ys2 = new double[nbCities];
+    for (int i=0; i<nbCities; i++) {
+      xs2[i] = xs[order[i]];
+      ys2[i] = ys[order[i]];
+    }
+    xs = xs2;
+    ys = ys2;
+
+    // items sorted by new city (counting sort)
+    int[] start = new int[nbCities+1];
+    for (int k=0; k<nbItems; k++) {
+      start[ cityIndex[availability[k]-1]+1 ]++;
+    }
+    for (int i=0; i<nbCities; i++) {
+      start[i+1] += start[i];
+    }
+    itemLabel = new int[nbItems];
+    for (int k=0; k<nbItems; k++) {
+      itemLabel[ start[cityIndex[availability[k]-1]]++ ] = k;
+    }
+
+    int[] profits2 = new int[nbItems];
+    int[] weights2 = new int[nbItems];
+    int[] availability2 = new int[nbItems];
+    for (int k=0; k<nbItems; k++) {
+      int o = itemLabel[k];
+      profits2[k] = profits[o];
+      weights2[k] = weights[o];
+      availability2[k] = cityIndex[availability[o]-1]+1;
+    }
+    profits = profits2;
+    weights = weights2;
+    availability = availability2;
+
+    dist = null;
+    clusterStart = null;
+    clusteredItems = null;
+  }
+}
@@ -0,0 +1,295 @@
+package ttp;
+
+import utils.FileHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * .ttp file reader
+ *
+ * maps the file in memory and scans the bytes directly
+ * into the instance arrays, the items section is split
+ * in chunks (on line boundaries) which are parsed in parallel
+ *
+ * produces exactly what the line based reader used to produce
+ */
+final class TTPFileReader {
+
+  // minimum number of bytes per parallel chunk
+  private static final int MIN_CHUNK = 1 << 16;
+
+  private final ByteBuffer buf;
+  private final int limit;
+
+  private TTPFileReader(ByteBuffer buf) {
+    this.buf = buf;
+    this.limit = buf.limit();
+  }
+
+
+  /**
+   * read a .ttp file into instance data
+   *
+   * @param ttp the data to fill
+   * @param file the .ttp file (or .ttp.gz, decompressed in memory)
+   */
+  static void read(TTPData ttp, File file) throws IOException {
+    if (FileHelper.isGzip(file)) {
+      new TTPFileReader(FileHelper.readGzip(file)).readInto(ttp);
+      return;
+    }
+    ByteBuffer buf;
+    try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    }
+    new TTPFileReader(buf).readInto(ttp);
+  }
+
+
+  private void readInto(TTPData ttp) {
+    int pos = 0;
+
+    while (pos < limit) {
+      int eol = endOfLine(pos);
+      String line = new String(bytes(pos, eol), StandardCharsets.ISO_8859_1);
+      pos = nextLine(eol);
+
+      if (line.startsWith("KNAPSACK DATA TYPE")) {
+        ttp.knapsackDataType = headerValue(line);
+      }
+      else if (line.startsWith("DIMENSION")) {
+        ttp.nbCities = Integer.parseInt(headerValue(line));
+      }
+      else if (line.startsWith("NUMBER OF ITEMS")) {
+        ttp.nbItems = Integer.parseInt(headerValue(line));
+      }
+      else if (line.startsWith("CAPACITY OF KNAPSACK")) {
+        ttp.capacity = Long.parseLong(headerValue(line));
+      }
+      else if (line.startsWith("MIN SPEED")) {
+        ttp.minSpeed = Double.parseDouble(headerValue(line));
+      }
+      else if (line.startsWith("MAX SPEED")) {
+        ttp.maxSpeed = Double.parseDouble(headerValue(line));
+      }
+      else if (line.startsWith("RENTING RATIO")) {
+        ttp.rent = Double.parseDouble(headerValue(line));
+      }
+      else if (line.startsWith("EDGE_WEIGHT_TYPE")) {
+        ttp.edgeWeightType = headerValue(line);
+      }
+      else if (line.startsWith("NODE_COORD_SECTION")) {
+        pos = readCoordinates(ttp, pos);
+      }
+      else if (line.startsWith("ITEMS SECTION")) {
+        readItems(ttp, pos);
+        break;
+      }
+    }
+  }
+
+
+  /**
+   * header value: everything after ':' without blanks
+   */
+  private static String headerValue(String line) {
+    line = line.substring(line.indexOf(":")+1);
+    return line.replaceAll("\\s+","");
+  }
+
+
+  /**
+   * node coordinates: one city per line (INDEX, X, Y)
+   *
+   * @return position of the line following the section
+   */
+  private int readCoordinates(TTPData ttp, int pos) {
+    int n = ttp.nbCities;
+    double[] xs = new double[n];
+    double[] ys = new double[n];
+    for (int i=0; i<n; i++) {
+      int eol = endOfLine(pos);
+      int p = skipField(pos, eol);
+      int e = fieldEnd(p, eol);
+      xs[i] = parseDouble(p, e);
+      p = skipBlanks(e, eol);
+      e = fieldEnd(p, eol);
+      ys[i] = parseDouble(p, e);
+      pos = nextLine(eol);
+    }
+    ttp.xs = xs;
+    ttp.ys = ys;
+    return pos;
+  }
+
+
+  /**
+   * items: one item per line (INDEX, PROFIT, WEIGHT, ASSIGNED NODE NUMBER)
+   *
+   * chunks are cut on line boundaries, their line counts give
+   * the index of the first item of every chunk
+   */
+  private void readItems(TTPData ttp, int start) {
+    int m = ttp.nbItems;
+    int[] profits = new int[m];
+    int[] weights = new int[m];
+    int[] availability = new int[m];
+
+    int span = limit - start;
+    int nbChunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4, span / MIN_CHUNK));
+
+    // chunk boundaries
+    int[] bounds = new int[nbChunks+1];
+    bounds[0] = start;
+    for (int c=1; c<nbChunks; c++) {
+      int b = Math.max(bounds[c-1], start + (int)((long)span * c / nbChunks));
+      // move boundary to the beginning of the next line
+      while (b < limit && b > start && buf.get(b-1) != '\n') b++;
+      bounds[c] = b;
+    }
+    bounds[nbChunks] = limit;
+
+    // first item index of each chunk
+    int[] first = new int[nbChunks+1];
+    int[] lines = new int[nbChunks];
+    IntStream.range(0, nbChunks).parallel().forEach(c -> lines[c] = countLines(bounds[c], bounds[c+1]));
+    for (int c=0; c<nbChunks; c++) {
+      first[c+1] = first[c] + lines[c];
+    }
+
+    IntStream.range(0, nbChunks).parallel().forEach(c -> {
+      int pos = bounds[c];
+      int end = bounds[c+1];
+      for (int i=first[c]; i<m && pos<end; i++) {
+        int eol = endOfLine(pos);
+        int p = skipField(pos, eol);
+        int e = fieldEnd(p, eol);
+        profits[i] = parseInt(p, e);
+        p = skipBlanks(e, eol);
+        e = fieldEnd(p, eol);
+        weights[i] = parseInt(p, e);
+        p = skipBlanks(e, eol);
+        e = fieldEnd(p, eol);
+        availability[i] = parseInt(p, e);
+        pos = nextLine(eol);
+      }
+    });
+
+    ttp.profits = profits;
+    ttp.weights = weights;
+    ttp.availability = availability;
+  }
+
+
+  /**
+   * number of lines starting in [from, to)
+   */
+  private int countLines(int from, int to) {
+    int count = 0;
+    for (int i=from; i<to; i++) {
+      if (buf.get(i) == '\n') count++;
+    }
+    // unterminated last line
+    if (to > from && to == limit && buf.get(to-1) != '\n') count++;
+    return count;
+  }
+
+
+  //===================================
+  // byte scanning
+  //===================================
+
+  private static boolean isBlank(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+  }
+
+  private int endOfLine(int pos) {
+    while (pos < limit && buf.get(pos) != '\n') pos++;
+    return pos;
+  }
+
+  private int nextLine(int eol) {
+    return eol < limit ? eol+1 : limit;
+  }
+
+  private int skipBlanks(int pos, int end) {
+    while (pos < end && isBlank(buf.get(pos))) pos++;
+    return pos;
+  }
+
+  private int fieldEnd(int pos, int end) {
+    while (pos < end && !isBlank(buf.get(pos))) pos++;
+    return pos;
+  }
+
+  /**
+   * skip one whitespace separated field,
+   * a leading blank counts as an empty field (like String.split)
+   */
+  private int skipField(int pos, int end) {
+    return skipBlanks(fieldEnd(pos, end), end);
+  }
+
+  private byte[] bytes(int from, int to) {
+    byte[] b = new byte[to-from];
+    for (int i=from; i<to; i++) b[i-from] = buf.get(i);
+    return b;
+  }
+
+  private int parseInt(int from, int to) {
+    int i = from;
+    boolean neg = false;
+    if (i < to && (buf.get(i) == '-' || buf.get(i) == '+')) {
+      neg = buf.get(i) == '-';
+      i++;
+    }
+    if (i == to) {
+      throw new NumberFormatException("empty field at byte " + from);
+    }
+    long v = 0;
+    for (; i<to; i++) {
+      int d = buf.get(i) - '0';
+      if (d < 0 || d > 9 || v > Integer.MAX_VALUE) {
+        // let the JDK report the malformed value
+        return Integer.parseInt(new String(bytes(from, to), StandardCharsets.ISO_8859_1));
+      }
+      v = v*10 + d;
+    }
+    v = neg ? -v : v;
+    if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+      return Integer.parseInt(new String(bytes(from, to), StandardCharsets.ISO_8859_1));
+    }
+    return (int) v;
+  }
+
+  /**
+   * integer coordinates are converted directly (exact below 2^53),
+   * anything else goes through Double.parseDouble
+   */
+  private double parseDouble(int from, int to) {
+    int i = from;
+    boolean neg = false;
+    if (i < to && (buf.get(i) == '-' || buf.get(i) == '+')) {
+      neg = buf.get(i) == '-';
+      i++;
+    }
+    if (i < to && to - i <= 15) {
+      long v = 0;
+      for (; i<to; i++) {
+        int d = buf.get(i) - '0';
+        if (d < 0 || d > 9) break;
+        v = v*10 + d;
+      }
+      if (i == to) {
+        return neg ? -(double) v : (double) v;
+      }
+    }
+    return Double.parseDouble(new String(bytes(from, to), StandardCharsets.ISO_8859_1));
+  }
+}
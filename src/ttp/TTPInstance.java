@@ -1,39 +1,128 @@
 package ttp;
 
 import utils.CityCoordinates;
+import utils.Quicksort;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * TTP instance
+ *
+ * the instance is immutable once loaded: it can be shared
+ * by solvers running in parallel (getters return copies
+ * of the arrays, the distances and candidates are final)
  * 
  * @author kyu
  */
 public abstract class TTPInstance {
   
-  protected String name;
-  protected String directory;
-  protected String tspName;
-
-  protected String knapsackDataType;
-  protected int nbCities;
-  protected int nbItems;
-  protected long capacity;
-  protected double minSpeed;
-  protected double maxSpeed;
-  protected String edgeWeightType;
-  protected CityCoordinates[] coordinates;
-  protected long[][] dist = null;
+  protected final String name;
+  protected final String directory;
+  protected final String tspName;
+
+  protected final String knapsackDataType;
+  protected final int nbCities;
+  protected final int nbItems;
+  protected final long capacity;
+  protected final double minSpeed;
+  protected final double maxSpeed;
+  protected final String edgeWeightType;
+  // city coordinates
+  protected final double[] xs;
+  protected final double[] ys;
+  // (with the candidate edges at hand, see TSPCache)
+  protected final DistanceOracle dist;
   // ASSIGNED NODE NUMBER
-  protected int[] availability;
-  protected int[] profits;
-  protected int[] weights;
+  protected final int[] availability;
+  protected final int[] profits;
+  protected final int[] weights;
   
-  protected File ttpFile;
+  protected final File ttpFile;
+
+  // item clusters per city (compressed rows):
+  // items of city i are clusteredItems[clusterStart[i]..clusterStart[i+1]-1]
+  protected final int[] clusterStart;
+  protected final int[] clusteredItems;
+
+  // relabeling (null if cities and items keep the file's numbering)
+  // original (0-based) id of each city / item, and its inverse for cities
+  protected final int[] cityLabel;
+  protected final int[] itemLabel;
+  protected final int[] cityIndex;
+
+  // item features (computed at load time)
+  // profit/weight ratio of each item
+  protected final double[] ratio;
+  // items by decreasing ratio
+  protected final int[] itemsByRatio;
+  // city features
+  // total weight of the items of each city
+  protected final long[] cityWeight;
+  // item of best ratio of each city (the first one on ties, -1 if none)
+  protected final int[] bestRatioItem;
 
-  // item clusters per city
-  protected ArrayList<Integer>[] clusters;
+  // Delaunay candidate graph (null if none), sets are unmodifiable
+  private final Set<Integer>[] candidates;
+
+
+  /**
+   * @param d loaded data, distances and candidates included
+   *          (the instance takes its arrays)
+   */
+  protected TTPInstance(TTPData d) {
+    this.name = d.name;
+    this.directory = d.directory;
+    this.tspName = d.tspName;
+    this.ttpFile = d.ttpFile;
+    this.knapsackDataType = d.knapsackDataType;
+    this.edgeWeightType = d.edgeWeightType;
+    this.nbCities = d.nbCities;
+    this.nbItems = d.nbItems;
+    this.capacity = d.capacity;
+    this.minSpeed = d.minSpeed;
+    this.maxSpeed = d.maxSpeed;
+    this.xs = d.xs;
+    this.ys = d.ys;
+    this.availability = d.availability;
+    this.profits = d.profits;
+    this.weights = d.weights;
+    this.clusterStart = d.clusterStart;
+    this.clusteredItems = d.clusteredItems;
+    this.cityLabel = d.cityLabel;
+    this.itemLabel = d.itemLabel;
+    this.cityIndex = d.cityIndex;
+    this.dist = d.dist;
+    this.candidates = unmodifiable(d.candidates);
+
+    this.ratio = new double[nbItems];
+    this.cityWeight = new long[nbCities];
+    this.bestRatioItem = new int[nbCities];
+    computeFeatures();
+    this.itemsByRatio = Quicksort.sortIndices(ratio);
+  }
+
+  /**
+   * static item and city features
+   */
+  private void computeFeatures() {
+    for (int k=0; k<nbItems; k++) {
+      ratio[k] = profits[k] / (weights[k] + .0);
+    }
+    for (int i=0; i<nbCities; i++) {
+      long w = 0;
+      int best = -1;
+      for (int t=clusterStart[i]; t<clusterStart[i+1]; t++) {
+        int k = clusteredItems[t];
+        w += weights[k];
+        if (best < 0 || ratio[k] > ratio[best]) best = k;
+      }
+      cityWeight[i] = w;
+      bestRatioItem[i] = best;
+    }
+  }
 
   @Override
   public String toString() {
@@ -43,14 +132,14 @@ public abstract class TTPInstance {
       // coordinates
       s += "cities | coordinates:\n";
       for (int i=0; i<this.nbCities; i++) {
-        s += String.format("%6d | ", i+1) + this.coordinates[i] + "\n";
+        s += String.format("%6d | ", i+1) + new CityCoordinates(xs[i], ys[i]) + "\n";
       }
       s+="\n";
       // distance matrix
       s += "distance matrix:\n";
       for (int i=0; i<this.nbCities; i++) {
         for (int j=0; j<this.nbCities; j++) {
-          s += String.format("%5d", this.getDist()[i][j]);
+          s += String.format("%5d", this.distFor(i, j));
         }
         s += "\n";
       }
@@ -90,10 +179,6 @@ public abstract class TTPInstance {
     return s;
   }
   
-  public void setDist(long[][] dist) {
-    this.dist = dist;
-  }
-
   public String getTspName() {
     return tspName;
   }
@@ -103,17 +188,17 @@ public abstract class TTPInstance {
   public String getName() {
     return name;
   }
-  public long[][] getDist() {
+  public DistanceOracle getDist() {
     return dist;
   }
   public int[] getAvailability() {
-    return availability;
+    return availability.clone();
   }
   public int[] getWeights() {
-    return weights;
+    return weights.clone();
   }
   public int[] getProfits() {
-    return profits;
+    return profits.clone();
   }
   public int getNbCities() {
     return nbCities;
@@ -130,13 +215,45 @@ public abstract class TTPInstance {
   public long getCapacity() {
     return capacity;
   }
-  public ArrayList<Integer>[] getClusters() {
-    return clusters;
+  public int[] getClusterStart() {
+    return clusterStart.clone();
+  }
+  public int[] getClusteredItems() {
+    return clusteredItems.clone();
+  }
+  public double[] getRatio() {
+    return ratio.clone();
+  }
+  public long[] getCityWeight() {
+    return cityWeight.clone();
   }
-  public CityCoordinates[] getCoordinates() {
-    return coordinates;
+  public int[] getBestRatioItem() {
+    return bestRatioItem.clone();
+  }
+  public int[] getCityLabel() {
+    return cityLabel == null ? null : cityLabel.clone();
+  }
+  public int[] getItemLabel() {
+    return itemLabel == null ? null : itemLabel.clone();
+  }
+  public double[] getXs() {
+    return xs.clone();
+  }
+  public double[] getYs() {
+    return ys.clone();
   }
 
+  public double ratioOf(int i) {
+    return this.ratio[i];
+  }
+  // total weight of the items of city i
+  public long cityWeightOf(int i) {
+    return this.cityWeight[i];
+  }
+  // item of best ratio of city i (-1 if none)
+  public int bestRatioItemOf(int i) {
+    return this.bestRatioItem[i];
+  }
   public int profitOf(int i) {
     return this.profits[i];
   }
@@ -144,32 +261,105 @@ public abstract class TTPInstance {
     return this.weights[i];
   }
 
-  // used to simulate the distance matrix
+  // items of city i: clusteredItems[clusterBegin(i)..clusterEnd(i)-1]
+  public int clusterBegin(int i) {
+    return this.clusterStart[i];
+  }
+  public int clusterEnd(int i) {
+    return this.clusterStart[i+1];
+  }
+  public int clusterSize(int i) {
+    return this.clusterStart[i+1] - this.clusterStart[i];
+  }
+
+  // distance between cities i and j
+  // (hot loops should use getDist() directly)
   public long distFor(int i, int j) {
-    if (dist==null) {
-//      return (long)Math.round(this.coordinates[i].distanceEuclid(this.coordinates[j]));
-      return (long)Math.ceil(this.coordinates[i].distanceEuclid(this.coordinates[j]));
-    }
-    return dist[i][j];
+    return dist.dist(i, j);
+  }
+
+  /**
+   * Delaunay candidate graph, shared by all the solvers
+   * of this instance (null if there is none)
+   */
+  public Set<Integer>[] getCandidates() {
+    return candidates == null ? null : candidates.clone();
   }
 
 
   /**
-   * organize items per city
+   * tour given with the file's city ids -> current ids (in place)
    */
-  public void clusterItems() {
+  public int[] relabelTour(int[] tour) {
+    if (cityIndex != null) {
+      for (int j=0; j<tour.length; j++) {
+        tour[j] = cityIndex[tour[j]-1]+1;
+      }
+    }
+    return tour;
+  }
 
-    clusters = new ArrayList[nbCities];
-    int i;
+  /**
+   * solution with the file's city and item ids
+   * (the solution itself if the instance is not relabeled)
+   */
+  public TTPSolution originalLabels(TTPSolution s) {
+    if (cityLabel == null) return s;
 
-    // init cluster arrays
-    for (i=0; i<nbCities; i++) {
-      clusters[i] = new ArrayList<>();
+    int[] x = s.getTour();
+    int[] z = s.getPickingPlan();
+    int[] tour = new int[x.length];
+    int[] pp = new int[z.length];
+    for (int i=0; i<x.length; i++) {
+      tour[i] = cityLabel[x[i]-1]+1;
+    }
+    for (int k=0; k<z.length; k++) {
+      if (z[k] != 0) pp[itemLabel[k]] = cityLabel[z[k]-1]+1;
     }
-    // fill clusters
-    for (i=0; i<nbItems; i++) {
-      clusters[ availability[i]-1 ].add(i);
+
+    TTPSolution o = new TTPSolution(tour, pp);
+    o.fp = s.fp;
+    o.ft = s.ft;
+    o.ob = s.ob;
+    o.wend = s.wend;
+    return o;
+  }
+
+
+  /**
+   * items sorted by decreasing profit/weight ratio
+   * (sorted at load time)
+   */
+  public int[] getItemsByRatio() {
+    return itemsByRatio.clone();
+  }
+
+  /**
+   * distance from each tour position to the end of the tour
+   * (back to the first city)
+   *
+   * @param tour TSP tour
+   */
+  public long[] distancesToEnd(int[] tour) {
+    DistanceOracle D = dist;
+    long[] L = new long[nbCities];
+    L[nbCities-1] = D.dist(tour[nbCities-1]-1, 0);
+    for (int i=nbCities-2; i>=0; i--) {
+      L[i] = L[i+1] + D.dist(tour[i+1]-1, tour[i]-1);
+    }
+    return L;
+  }
+
+
+  // (no generic array creation in java)
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Set<Integer>[] unmodifiable(HashSet<Integer>[] sets) {
+    if (sets == null) return null;
+    Set<Integer>[] u = new Set[sets.length];
+    for (int i=0; i<sets.length; i++) {
+      u[i] = Collections.unmodifiableSet(sets[i]);
     }
+    return u;
   }
 
 }
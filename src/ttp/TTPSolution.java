@@ -1,10 +1,10 @@
 package ttp;
 
 import utils.Deb;
+import utils.FileHelper;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
 
@@ -43,6 +43,9 @@ public class TTPSolution {
   // map indices to their associated cities
   // mapCI[i] la thanh pho tiep theo cua thanh pho i
   public int[] mapCI;
+  // edge lengths in tour order:
+  // edgeLen[i] = d(tour[i], tour[i+1]) (last edge goes back to tour[0])
+  public long[] edgeLen;
 
 
   private void initSolution(int[] tour, int[] pickingPlan) {
@@ -55,6 +58,7 @@ public class TTPSolution {
     this.weightAcc = new long[this.tour.length];
     this.weightRec = new long[this.tour.length];
     this.mapCI = new int[this.tour.length];
+    this.edgeLen = new long[this.tour.length];
   }
 
   public TTPSolution() {
@@ -76,6 +80,7 @@ public class TTPSolution {
     weightAcc = new long[tour.length];
     weightRec = new long[tour.length];
     mapCI = new int[tour.length];
+    edgeLen = new long[tour.length];
   }
   
   public TTPSolution(TTPSolution s2) {
@@ -93,6 +98,7 @@ public class TTPSolution {
     this.weightAcc = Arrays.copyOf(s2.weightAcc,s2.weightAcc.length);
     this.weightRec = Arrays.copyOf(s2.weightRec,s2.weightRec.length);
     this.mapCI = Arrays.copyOf(s2.mapCI,s2.mapCI.length);
+    this.edgeLen = Arrays.copyOf(s2.edgeLen,s2.edgeLen.length);
   }
   
   public TTPSolution(String filePath) {
@@ -102,7 +108,7 @@ public class TTPSolution {
     int nbCities = 0, nbItems = 0;
 
     try {
-      br = new BufferedReader(new FileReader(solFile));
+      br = FileHelper.reader(solFile);
       String line;
 
       // scan tour
@@ -203,6 +209,13 @@ public class TTPSolution {
   }
 
 
+  /**
+   * output with the instance file's city and item ids
+   */
+  public String output(TTPInstance ttp) {
+    return ttp.originalLabels(this).output();
+  }
+
   public String output() {
     String s=
       "DIMENSION : "+tour.length+"\n" +
@@ -0,0 +1,212 @@
+package utils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * solver configuration
+ *
+ * read once, each source overrides the previous one:
+ *   defaults, src/config.properties,
+ *   system properties (-Dkey=value),
+ *   command line arguments (--key=value)
+ *
+ * @author kyu
+ */
+public final class Config {
+
+  public static final String FILE = "src/config.properties";
+
+  // keys that can be set by system properties
+  private static final String[] KEYS = {
+    "ttpdata", "tspdata", "lktours", "ttpbinary", "coordinates", "distmatrix", "distdir", "relabel", "tspcache",
+    "sa.T0", "sa.alpha", "sa.Tabs", "sa.trialFactor", "sa.sampler",
+    "vi.trialsPerCity", "vi.trialsBudget", "bitflip.cityMoves", "bitflip.momentOrder", "delaunay.level", "runtime", "seed"
+  };
+
+  // data
+  public final String ttpData;
+  public final String tspData;
+  public final String lkTours;
+  public final String ttpBinary;
+  public final String coordinates;
+  public final String distMatrix;
+  public final String distDir;
+  public final String relabel;
+  public final String tspCache;
+
+  // simulated annealing (bit-flip)
+  public final double T0;
+  public final double alpha;
+  public final double Tabs;
+  // trials per temperature = #items * trialFactor
+  // (0: fitted on the number of items)
+  public final double trialFactor;
+  // items drawn: uniform | feasible | ratio | sweep (see ItemSampler)
+  public final String saSampler;
+
+  // simulated annealing (vertex insertion)
+  // trials per temperature = min(#cities * perCity, budget / #cities)
+  public final int viTrialsPerCity;
+  public final int viTrialsBudget;
+
+  // bit-flip search: also take / drop all the items of a city
+  public final boolean bitFlipCityMoves;
+  // bit-flip screening: terms of the moment series (0: off)
+  public final int bitFlipMomentOrder;
+
+  // Delaunay candidates level (1: triangulation)
+  public final int delaunayLevel;
+
+  // time budget of a run (seconds)
+  public final long runtime;
+
+  // random seed (0: none, see RandGen)
+  public final long seed;
+
+  // all values
+  private final Properties properties;
+
+  private static volatile Config current;
+
+
+  private Config(Properties p) {
+    this.properties = p;
+
+    ttpData = p.getProperty("ttpdata", "./database/TTP1_data/");
+    tspData = p.getProperty("tspdata", "./database/TSP_instances/");
+    lkTours = p.getProperty("lktours", "./database/LK_tours/");
+    ttpBinary = p.getProperty("ttpbinary", "read");
+    coordinates = p.getProperty("coordinates", "double");
+    distMatrix = p.getProperty("distmatrix", "off");
+    distDir = p.getProperty("distdir", "./database/distances/");
+    relabel = p.getProperty("relabel", "off");
+    tspCache = p.getProperty("tspcache", "memory");
+
+    T0 = getDouble(p, "sa.T0", 98);
+    alpha = getDouble(p, "sa.alpha", 0.9578);
+    Tabs = getDouble(p, "sa.Tabs", 1);
+    trialFactor = getDouble(p, "sa.trialFactor", 0);
+    saSampler = p.getProperty("sa.sampler", "feasible");
+
+    viTrialsPerCity = (int) getLong(p, "vi.trialsPerCity", 10);
+    viTrialsBudget = (int) getLong(p, "vi.trialsBudget", 12762000);
+
+    bitFlipCityMoves = Boolean.parseBoolean(p.getProperty("bitflip.cityMoves", "false"));
+    bitFlipMomentOrder = (int) getLong(p, "bitflip.momentOrder", 4);
+
+    delaunayLevel = (int) getLong(p, "delaunay.level", 1);
+
+    runtime = getLong(p, "runtime", 600);
+
+    seed = getLong(p, "seed", 0);
+  }
+
+
+  /**
+   * current configuration
+   * (loaded on first access)
+   */
+  public static Config get() {
+    Config conf = current;
+    if (conf == null) {
+      synchronized (Config.class) {
+        if (current == null) {
+          current = load(new HashMap<>());
+        }
+        conf = current;
+      }
+    }
+    return conf;
+  }
+
+  /**
+   * reload the configuration with overrides on top
+   * of the file and system properties
+   */
+  public static synchronized Config override(Map<String, String> overrides) {
+    current = load(overrides);
+    return current;
+  }
+
+  /**
+   * take --key=value overrides out of command line arguments
+   *
+   * @return the remaining (positional) arguments
+   */
+  public static String[] parseArgs(String[] args) {
+    Map<String, String> overrides = new HashMap<>();
+    List<String> rest = new ArrayList<>();
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (arg.startsWith("--") && eq > 2) {
+        overrides.put(arg.substring(2, eq), arg.substring(eq+1));
+      }
+      else {
+        rest.add(arg);
+      }
+    }
+    if (!overrides.isEmpty()) {
+      override(overrides);
+    }
+    return rest.toArray(new String[0]);
+  }
+
+  private static Config load(Map<String, String> overrides) {
+    Properties p = new Properties();
+    try (InputStream input = new FileInputStream(FILE)) {
+      p.load(input);
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    }
+    for (String key : KEYS) {
+      if (System.getProperty(key) != null) {
+        p.setProperty(key, System.getProperty(key));
+      }
+    }
+    p.putAll(overrides);
+    return new Config(p);
+  }
+
+
+  /**
+   * raw value (null if undefined)
+   */
+  public String getProperty(String name) {
+    return properties.getProperty(name);
+  }
+
+  private static double getDouble(Properties p, String key, double def) {
+    String v = p.getProperty(key);
+    if (v == null || v.trim().isEmpty()) return def;
+    try {
+      return Double.parseDouble(v.trim());
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("config: " + key + "=" + v + " is not a number");
+    }
+  }
+
+  private static long getLong(Properties p, String key, long def) {
+    String v = p.getProperty(key);
+    if (v == null || v.trim().isEmpty()) return def;
+    try {
+      return Long.parseLong(v.trim());
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("config: " + key + "=" + v + " is not an integer");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "T0=" + T0 + " alpha=" + alpha + " Tabs=" + Tabs +
+      " trialFactor=" + (trialFactor > 0 ? trialFactor : "fit") +
+      " vi.trials=" + viTrialsPerCity + "/" + viTrialsBudget +
+      " delaunay.level=" + delaunayLevel + " runtime=" + runtime + "s";
+  }
+}
@@ -1,33 +1,17 @@
 package utils;
 
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
-
 /**
  * Created by kyu on 12/5/15.
  */
 public class ConfigHelper {
   public static String nameFile = "";
   public static int perminute = 0;
-  public static String getProperty(String name) {
-    // get datasets folder path
-    Properties prop = new Properties();
-    InputStream input;
-    String ttpData = null;
-    try {
-      input = new FileInputStream("src/config.properties");
-
-      // load a properties file
-      prop.load(input);
 
-      // get the property value and print it out
-      ttpData = prop.getProperty(name);
-
-    } catch (IOException ex) {
-      ex.printStackTrace();
-    }
-    return ttpData;
+  /**
+   * raw configuration value
+   * (see Config for typed values)
+   */
+  public static String getProperty(String name) {
+    return Config.get().getProperty(name);
   }
 }
@@ -0,0 +1,67 @@
+package utils;
+
+/**
+ * Fenwick tree (binary indexed tree) of non-negative values
+ *
+ * point update, prefix sum and sampling by cumulative value
+ * in O(log n)
+ *
+ * @author kyu
+ */
+public class FenwickTree {
+
+  private final int n;
+  // tree[i] = sum of the values in (i - lowbit(i), i], 1-based
+  private final double[] tree;
+  // highest power of 2 <= n
+  private final int top;
+
+  public FenwickTree(int n) {
+    this.n = n;
+    this.tree = new double[n + 1];
+    this.top = n == 0 ? 0 : Integer.highestOneBit(n);
+  }
+
+  /**
+   * add v to value i (0-based)
+   */
+  public void add(int i, double v) {
+    for (int j = i + 1; j <= n; j += j & -j) {
+      tree[j] += v;
+    }
+  }
+
+  /**
+   * sum of the values [0, i)
+   */
+  public double prefix(int i) {
+    double s = 0;
+    for (int j = i; j > 0; j -= j & -j) {
+      s += tree[j];
+    }
+    return s;
+  }
+
+  /**
+   * sum of all the values
+   */
+  public double total() {
+    return prefix(n);
+  }
+
+  /**
+   * smallest index i such that prefix(i+1) > target
+   * (n - 1 if the target is beyond the rounded total)
+   */
+  public int find(double target) {
+    int pos = 0;
+    for (int step = top; step > 0; step >>= 1) {
+      int next = pos + step;
+      if (next <= n && tree[next] <= target) {
+        pos = next;
+        target -= tree[next];
+      }
+    }
+    return Math.min(pos, n - 1);
+  }
+}
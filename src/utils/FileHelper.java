@@ -0,0 +1,98 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * input files, plain or gzip-compressed (.gz)
+ *
+ * a file that doesn't exist is looked up with
+ * the .gz extension, so callers can keep plain names
+ *
+ * @author kyu
+ */
+public class FileHelper {
+
+  public static final String GZIP_EXTENSION = ".gz";
+
+  // read buffers
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * the file itself, or its compressed version if only that one exists
+   */
+  public static File resolve(File file) {
+    if (!file.exists() && !isGzip(file)) {
+      File gz = new File(file.getPath() + GZIP_EXTENSION);
+      if (gz.exists()) return gz;
+    }
+    return file;
+  }
+
+  public static boolean isGzip(File file) {
+    return file.getName().endsWith(GZIP_EXTENSION);
+  }
+
+  /**
+   * line reader (the file is resolved first)
+   */
+  public static BufferedReader reader(File file) throws IOException {
+    return new BufferedReader(new InputStreamReader(open(resolve(file)), StandardCharsets.ISO_8859_1), BUFFER_SIZE);
+  }
+
+  /**
+   * stream of the file's content, decompressed if needed
+   */
+  public static InputStream open(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    if (isGzip(file)) {
+      return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+    return in;
+  }
+
+  /**
+   * whole decompressed content of a .gz file
+   */
+  public static ByteBuffer readGzip(File file) throws IOException {
+    // initial size from the gzip trailer (uncompressed size mod 2^32)
+    int size = BUFFER_SIZE;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      if (raf.length() >= 4) {
+        raf.seek(raf.length() - 4);
+        int isize = Integer.reverseBytes(raf.readInt());
+        if (isize > 0) size = isize;
+      }
+    }
+
+    byte[] b = new byte[size];
+    int n = 0;
+    try (InputStream in = open(file)) {
+      while (true) {
+        if (n == b.length) {
+          // grow only if there is more to read
+          int c = in.read();
+          if (c < 0) break;
+          if (b.length >= Integer.MAX_VALUE - 8) {
+            throw new IOException(file + ": too large");
+          }
+          b = Arrays.copyOf(b, (int) Math.min(Integer.MAX_VALUE - 8, 2L * b.length));
+          b[n++] = (byte) c;
+        }
+        int r = in.read(b, n, b.length - n);
+        if (r < 0) break;
+        n += r;
+      }
+    }
+    return ByteBuffer.wrap(b, 0, n).slice();
+  }
+}
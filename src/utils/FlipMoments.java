@@ -0,0 +1,141 @@
+package utils;
+
+import ttp.TTPSolution;
+
+/**
+ * moment-based estimate of a bit-flip
+ *
+ * adding a weight dw at tour position p changes the velocity
+ * of every edge r >= p from v_r to v_r - C*dw, the travel time of
+ * the suffix becomes
+ *
+ *   sum(r >= p) d_r / (v_r - a) = sum(k >= 0) a^k M_k(p),  a = C*dw
+ *   M_k(p) = sum(r >= p) d_r / v_r^(k+1)
+ *
+ * the series is truncated at the given order, its remainder is bounded
+ * by |a|^K M_K(p) / (1-|a|/v_min), which gives a lower bound of the final
+ * time in O(order): moves that can't be accepted are screened out
+ * before the exact O(n) evaluation
+ *
+ * the moments are kept as prefix sums (M_k(p) = total_k - prefix_k(p)),
+ * a flip at p only changes the prefixes after p; accepted flips are
+ * lazy (as in SuffixKernel): apply() records the weight, the prefixes
+ * are recomputed from the first flipped position when next read
+ *
+ * @author kyu
+ */
+public class FlipMoments {
+
+  private static final double U = Math.ulp(1.0);
+
+  private final int order;
+  private final int n;
+  // prefix[p*(order+1) + k] = sum(r < p) d_r / v_r^(k+1), k = 0..order
+  private final double[] prefix;
+
+  // weight picked at each tour position, weightAcc
+  private final long[] picked;
+  private final long[] weight;
+  // prefixes are up to date up to this position
+  private int stale;
+
+  private double maxSpeed, C;
+  private long[] edgeLen;
+  // smallest velocity (end of the tour)
+  private double vMin;
+
+  /**
+   * @param nbCities number of cities
+   * @param order number of terms of the series (>= 1)
+   */
+  public FlipMoments(int nbCities, int order) {
+    this.order = order;
+    this.n = nbCities;
+    this.prefix = new double[(nbCities + 1) * (order + 1)];
+    this.picked = new long[nbCities];
+    this.weight = new long[nbCities];
+    this.stale = nbCities;
+  }
+
+  /**
+   * (re)compute the moments from a tour position
+   * (the solution is evaluated, positions before from are unchanged)
+   */
+  public void update(TTPSolution sol, int from, double maxSpeed, double C) {
+    this.maxSpeed = maxSpeed;
+    this.C = C;
+    this.edgeLen = sol.edgeLen;
+    long[] weightAcc = sol.weightAcc;
+    for (int r = from; r < n; r++) {
+      picked[r] = weightAcc[r] - (r == 0 ? 0 : weightAcc[r - 1]);
+    }
+    stale = Math.min(stale, from);
+    refresh();
+  }
+
+  /**
+   * add dw at tour position p (the moments are recomputed later)
+   */
+  public void apply(int p, long dw) {
+    picked[p] += dw;
+    stale = Math.min(stale, p);
+  }
+
+  /**
+   * lower bound of the final time once dw is added at position p,
+   * as computed by the exact forward evaluation
+   * (-infinity if the series doesn't converge)
+   *
+   * @param t0 time at position p (timeAcc[p-1], see SuffixKernel.startTime)
+   */
+  public double lowerTime(double t0, int p, long dw) {
+    if (stale < n) refresh();
+    double a = C * dw;
+    double rho = Math.abs(a) / vMin;
+    if (rho >= 0.5) return Double.NEGATIVE_INFINITY;
+
+    int K = order + 1;
+    int end = n * K, start = p * K;
+    double est = 0, err = 0, ak = 1;
+    for (int k = 0; k < order; k++) {
+      double total = prefix[end + k];
+      est += ak * (total - prefix[start + k]);
+      err += Math.abs(ak) * total;
+      ak *= a;
+    }
+    // series remainder
+    double rest = Math.abs(ak) * (prefix[end + order] - prefix[start + order]) / (1 - rho);
+    // rounding: moments (sums and difference), series, forward evaluation
+    double round = 4 * (n + order + 4) * U * (err + Math.abs(ak) * prefix[end + order] + t0 + Math.abs(est));
+
+    return t0 + est - rest - round;
+  }
+
+  // weights and prefixes from the first stale position
+  private void refresh() {
+    int K = order + 1;
+    long wc = stale == 0 ? 0 : weight[stale - 1];
+    for (int r = stale; r < n; r++) {
+      wc += picked[r];
+      weight[r] = wc;
+      double inv = 1 / (maxSpeed - wc * C);
+      double term = edgeLen[r] * inv;
+      int i = r * K;
+      for (int k = 0; k < K; k++) {
+        prefix[i + K + k] = prefix[i + k] + term;
+        term *= inv;
+      }
+    }
+    vMin = maxSpeed - weight[n - 1] * C;
+    stale = n;
+  }
+
+  /**
+   * upper bound of the objective value fp - ft*R of a flip,
+   * given a lower bound of its final time
+   */
+  public static double upperObjective(long fp, double ftLow, double R) {
+    double G = fp - ftLow * R;
+    return G + 4 * U * (Math.abs((double) fp) + Math.abs(ftLow * R));
+  }
+}
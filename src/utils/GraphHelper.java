@@ -5,6 +5,7 @@ import ttp.TTPInstance;
 
 import java.io.*;
 import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Created by kyu on 11/3/15.
@@ -15,18 +16,27 @@ public class GraphHelper {
    * get delaunay candidates
    */
   public static HashSet<Integer>[] delaunay(TTPInstance ttp) {
-    int nbCities = ttp.getNbCities();
+    return delaunay(ttp.getName(), ttp.getXs(), ttp.getYs());
+  }
+
+  /**
+   * delaunay candidates of a set of cities
+   *
+   * @param name instance name (temporary file prefix)
+   */
+  public static HashSet<Integer>[] delaunay(String name, double[] xs, double[] ys) {
+    int nbCities = xs.length;
 
     try {
       // write coordinates
-      String[] tspBase = ttp.getName().split("_",2);
-      String name = tspBase[0];
-      String fileNameCoord = "./bins/delaunay/" + name + ".coord";
-      File fileCoord = new File(fileNameCoord);
+      // (unique file: several instances may be triangulated at once)
+      String[] tspBase = name.split("_",2);
+      File fileCoord = File.createTempFile(tspBase[0] + "-", ".coord", new File("./bins/delaunay"));
+      String fileNameCoord = fileCoord.getPath();
       PrintWriter coordWriter = new PrintWriter(fileCoord);
-      coordWriter.println(ttp.getNbCities());
-      for (CityCoordinates node : ttp.getCoordinates()) {
-        coordWriter.println(node.getX() + " " + node.getY());
+      coordWriter.println(nbCities);
+      for (int i = 0; i < nbCities; i++) {
+        coordWriter.println(xs[i] + " " + ys[i]);
       }
       coordWriter.close();
 
@@ -78,7 +88,7 @@ public class GraphHelper {
   public static HashSet<Integer>[] delaunayKNN(TTPInstance ttp, int k) {
 
     int nbCities = ttp.getNbCities();
-    HashSet<Integer>[] tri = delaunay(ttp);
+    Set<Integer>[] tri = ttp.getCandidates();
     HashSet<Integer>[] tri2 = new HashSet[nbCities];
 
     // fill tri2 with tri ==> level 1
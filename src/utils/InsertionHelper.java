@@ -0,0 +1,72 @@
+package utils;
+
+import ttp.DistanceOracle;
+import ttp.TTPSolution;
+
+/**
+ * vertex insertion:
+ * move the city at one tour position to another position
+ *
+ * @author kyu
+ */
+public class InsertionHelper {
+
+  /**
+   * move tour[from] to position `to`,
+   * cities in between are shifted by one
+   *
+   * @param tour TSP tour
+   * @param from current position
+   * @param to new position
+   */
+  public static void doInsertion(int[] tour, int from, int to) {
+    int c = tour[from];
+    if (from > to) {
+      System.arraycopy(tour, to, tour, to+1, from-to);
+    }
+    else {
+      System.arraycopy(tour, from+1, tour, from, to-from);
+    }
+    tour[to] = c;
+  }
+
+  /**
+   * move tour[from] to position `to`
+   * and update the solution's edge lengths
+   *
+   * shifted edges are moved, only three edges are new
+   *
+   * @param sol TTP solution
+   * @param D distances
+   * @param from current position
+   * @param to new position
+   */
+  public static void doInsertion(TTPSolution sol, DistanceOracle D, int from, int to) {
+    if (from == to) return;
+
+    int[] tour = sol.getTour();
+    long[] edgeLen = sol.edgeLen;
+    int n = tour.length;
+
+    doInsertion(tour, from, to);
+
+    if (from > to) {
+      // edges to..from-2 become to+1..from-1
+      System.arraycopy(edgeLen, to, edgeLen, to+1, from-1-to);
+      updateEdge(tour, edgeLen, D, (to-1+n)%n);
+      updateEdge(tour, edgeLen, D, to);
+      updateEdge(tour, edgeLen, D, from);
+    }
+    else {
+      // edges from+1..to-1 become from..to-2
+      System.arraycopy(edgeLen, from+1, edgeLen, from, to-1-from);
+      updateEdge(tour, edgeLen, D, (from-1+n)%n);
+      updateEdge(tour, edgeLen, D, to-1);
+      updateEdge(tour, edgeLen, D, to);
+    }
+  }
+
+  private static void updateEdge(int[] tour, long[] edgeLen, DistanceOracle D, int i) {
+    edgeLen[i] = D.dist(tour[i]-1, tour[(i+1)%tour.length]-1);
+  }
+}
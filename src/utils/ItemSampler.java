@@ -0,0 +1,311 @@
+package utils;
+
+import ttp.TTP1Instance;
+import ttp.TTPSolution;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * items drawn by the bit-flip annealing
+ *
+ *   uniform  : any item (insertions that don't fit are drawn too)
+ *   feasible : uniformly among the picked items and the unpicked
+ *              items that fit in the remaining capacity
+ *   ratio    : same candidates, the unpicked items by profit/weight
+ *              and the picked items by weight/profit (a side is
+ *              chosen by its number of candidates)
+ *   sweep    : every item once per sweep, the items sorted by tour
+ *              position are cut into blocks, the blocks are visited
+ *              in random order (and their items shuffled): consecutive
+ *              flips start near each other in the suffix vectors
+ *
+ * the items are sorted by weight: the unpicked items that fit are a
+ * prefix of this order, the candidates are this prefix (picked or not)
+ * and the picked items above it; the prefix is found again only after
+ * a flip or a change of the remaining capacity
+ *
+ *   feasible : a rank in the prefix, or a picked item above it (drawn
+ *              among all the picked ones until it is above): O(1)
+ *              on average per draw, O(1) per flip (and the picked
+ *              count, a Fenwick tree, in O(log n))
+ *   ratio    : values in Fenwick trees, O(log n) per draw and flip
+ *
+ * feasible and ratio draws also tell how many uniform draws would
+ * have been rejected before (skipped(), on average): counted as
+ * trials, the annealing evaluates as many flips as in uniform mode,
+ * without drawing the rejected ones
+ *
+ * no bias by recent gain: the gain of a flip depends on every flip
+ * accepted since (through the weights along the tour suffix), a
+ * recorded gain is stale after a few acceptances
+ *
+ * @author kyu
+ */
+public class ItemSampler {
+
+  // items of a sweep block
+  private static final int SWEEP_BLOCK = 64;
+  // flips recorded before the candidates are updated
+  private static final int MAX_PENDING = 64;
+
+  private final int nbItems;
+
+  // sweep: items by tour position, current sweep and position in it
+  private int[] byTour;
+  private int[] sweep;
+  private int sweepPos;
+
+  // items by weight, rank of each item
+  private int[] order;
+  private int[] rank;
+  private long[] sortedWeight;
+
+  // picked items (count by rank, and in no order)
+  private FenwickTree pickedCount;
+  private int[] pickedList;
+  private int[] pickedPos;
+  private boolean[] picked;
+  private int nbPicked;
+  // ratio: candidate values by rank
+  private FenwickTree unpickedValue, pickedValue;
+  private double[] valueIn, valueOut;
+
+  // flips not applied to the candidates yet
+  private final int[] pending = new int[MAX_PENDING];
+  private int nbPending;
+
+  // candidates for the remaining capacity wend
+  // (found again after a flip or once wend changes)
+  private long wend = -1;
+  private boolean stale = true;
+  private int limit, nbFit, nbCandidates;
+  private double fitValue;
+  // rejected uniform draws per draw, and their fractional sum
+  private double perDraw, rejected;
+  private long skipped;
+
+  /**
+   * @param sol solution being searched (picking plan, tour positions)
+   * @param mode uniform | feasible | ratio | sweep
+   */
+  public ItemSampler(TTP1Instance ttp, TTPSolution sol, String mode) {
+    this.nbItems = ttp.getNbItems();
+    if ("uniform".equals(mode)) return;
+    if ("sweep".equals(mode)) {
+      int[] A = ttp.getAvailability();
+      long[] keys = new long[nbItems];
+      for (int k = 0; k < nbItems; k++) {
+        keys[k] = ((long) sol.mapCI[A[k] - 1] << 32) | k;
+      }
+      Arrays.sort(keys);
+      byTour = new int[nbItems];
+      for (int i = 0; i < nbItems; i++) {
+        byTour[i] = (int) keys[i];
+      }
+      sweep = new int[nbItems];
+      sweepPos = nbItems;
+      return;
+    }
+    if (!"feasible".equals(mode) && !"ratio".equals(mode)) {
+      throw new IllegalArgumentException("unknown item sampler: " + mode);
+    }
+
+    long[] keys = new long[nbItems];
+    for (int k = 0; k < nbItems; k++) {
+      keys[k] = ((long) ttp.weightOf(k) << 32) | k;
+    }
+    Arrays.sort(keys);
+    order = new int[nbItems];
+    rank = new int[nbItems];
+    sortedWeight = new long[nbItems];
+    for (int r = 0; r < nbItems; r++) {
+      order[r] = (int) keys[r];
+      rank[order[r]] = r;
+      sortedWeight[r] = keys[r] >>> 32;
+    }
+
+    pickedCount = new FenwickTree(nbItems);
+    pickedList = new int[nbItems];
+    pickedPos = new int[nbItems];
+    if ("ratio".equals(mode)) {
+      unpickedValue = new FenwickTree(nbItems);
+      pickedValue = new FenwickTree(nbItems);
+      // (profits and weights of TTP items are positive)
+      valueIn = ttp.getRatio();
+      valueOut = new double[nbItems];
+      for (int k = 0; k < nbItems; k++) {
+        valueOut[k] = 1 / valueIn[k];
+      }
+    }
+    int[] pickingPlan = sol.getPickingPlan();
+    picked = new boolean[nbItems];
+    for (int k = 0; k < nbItems; k++) {
+      picked[k] = pickingPlan[k] != 0;
+      add(k, 1);
+    }
+  }
+
+  /**
+   * next item to flip
+   *
+   * @param wend remaining capacity
+   * @return -1 if no item can be flipped
+   */
+  public int next(long wend) {
+    if (byTour != null) {
+      if (sweepPos == nbItems) newSweep();
+      return sweep[sweepPos++];
+    }
+    if (order == null) return RandGen.randInt(0, nbItems - 1);
+    Random rand = RandGen.random();
+
+    if (stale || wend != this.wend) candidates(wend);
+    if (nbCandidates == 0) return -1;
+
+    rejected += perDraw;
+    skipped = (long) rejected;
+    rejected -= skipped;
+
+    if (unpickedValue != null) return byRatio(rand);
+
+    // ranks [0, limit), or a picked item above
+    int u = rand.nextInt(nbCandidates);
+    if (u < limit) return order[u];
+    return pickedAbove(rand);
+  }
+
+  // ratio mode: a side by its number of candidates, an item by value
+  private int byRatio(Random rand) {
+    double u = rand.nextDouble() * nbCandidates;
+    if (u < nbFit) {
+      int r = unpickedValue.find(rand.nextDouble() * fitValue);
+      // (a rounded sum may point past the candidates)
+      if (r < limit && !picked[order[r]]) return order[r];
+      // uniformly among the unpicked ones
+      while (true) {
+        int k = order[rand.nextInt(limit)];
+        if (!picked[k]) return k;
+      }
+    }
+    int r = pickedValue.find(rand.nextDouble() * pickedValue.total());
+    if (picked[order[r]]) return order[r];
+    return pickedList[rand.nextInt(nbPicked)];
+  }
+
+  /**
+   * uniform draws of non candidates the last draw stands for
+   * (on average, always 0 in uniform and sweep modes)
+   */
+  public long skipped() {
+    return skipped;
+  }
+
+  /**
+   * item k was flipped
+   * (recorded, the candidates are updated by the next draw:
+   * the annealing's loop stays small)
+   */
+  public void flip(int k) {
+    if (order == null) return;
+    if (nbPending == MAX_PENDING) applyFlips();
+    pending[nbPending++] = k;
+    stale = true;
+  }
+
+
+  // update the candidates after the recorded flips
+  private void applyFlips() {
+    for (int i = 0; i < nbPending; i++) {
+      int k = pending[i];
+      add(k, -1);
+      picked[k] = !picked[k];
+      add(k, 1);
+    }
+    nbPending = 0;
+  }
+
+  // candidates for a remaining capacity
+  private void candidates(long wend) {
+    applyFlips();
+    this.wend = wend;
+    stale = false;
+    // unpicked items that fit: the unpicked ones of ranks [0, limit)
+    limit = upperBound(wend);
+    int pickedBelow = (int) Math.round(pickedCount.prefix(limit));
+    nbFit = limit - pickedBelow;
+    nbCandidates = limit + nbPicked - pickedBelow;
+    if (unpickedValue != null) fitValue = unpickedValue.prefix(limit);
+    perDraw = nbCandidates == 0 ? 0 : (nbItems - nbCandidates) / (double) nbCandidates;
+  }
+
+  // a picked item of rank >= limit (there is one): drawn among the
+  // picked ones, nbPicked / (nbCandidates - limit) tries on average,
+  // and this branch is taken with probability (nbCandidates - limit) / nbCandidates
+  private int pickedAbove(Random rand) {
+    while (true) {
+      int k = pickedList[rand.nextInt(nbPicked)];
+      if (rank[k] >= limit) return k;
+    }
+  }
+
+
+  // blocks of the tour in random order, items shuffled in each block
+  private void newSweep() {
+    Random rand = RandGen.random();
+    int nbBlocks = (nbItems + SWEEP_BLOCK - 1) / SWEEP_BLOCK;
+    int[] blocks = new int[nbBlocks];
+    for (int b = 0; b < nbBlocks; b++) {
+      blocks[b] = b;
+    }
+    shuffle(blocks, 0, nbBlocks, rand);
+    int i = 0;
+    for (int b : blocks) {
+      int start = b * SWEEP_BLOCK, end = Math.min(start + SWEEP_BLOCK, nbItems);
+      System.arraycopy(byTour, start, sweep, i, end - start);
+      shuffle(sweep, i, end - start, rand);
+      i += end - start;
+    }
+    sweepPos = 0;
+  }
+
+  // Fisher-Yates shuffle of a[from, from+len)
+  private static void shuffle(int[] a, int from, int len, Random rand) {
+    for (int i = len - 1; i > 0; i--) {
+      int j = rand.nextInt(i + 1);
+      int tmp = a[from + i];
+      a[from + i] = a[from + j];
+      a[from + j] = tmp;
+    }
+  }
+
+  // add (sign = 1) or remove (-1) item k from its candidates
+  private void add(int k, int sign) {
+    int r = rank[k];
+    if (picked[k]) {
+      pickedCount.add(r, sign);
+      if (pickedValue != null) pickedValue.add(r, sign * valueOut[k]);
+      if (sign > 0) {
+        pickedPos[k] = nbPicked;
+        pickedList[nbPicked++] = k;
+      } else {
+        int last = pickedList[--nbPicked];
+        pickedList[pickedPos[k]] = last;
+        pickedPos[last] = pickedPos[k];
+      }
+    } else {
+      if (unpickedValue != null) unpickedValue.add(r, sign * valueIn[k]);
+    }
+  }
+
+  // number of items of weight <= w
+  private int upperBound(long w) {
+    int lo = 0, hi = nbItems;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sortedWeight[mid] <= w) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+}
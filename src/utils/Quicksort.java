@@ -68,6 +68,53 @@ public class Quicksort<T extends Comparable<T>> {
       sort(i, high);
   }
   
+  /**
+   * indices of the values in descending order, primitive version
+   * (same partitions as sort(): same order for equal values)
+   *
+   * @param values sorted values (left untouched)
+   */
+  public static int[] sortIndices(double[] values) {
+    double[] data = values.clone();
+    int[] indices = new int[data.length];
+    for (int i=0;i<data.length;i++) {
+      indices[i] = i;
+    }
+    if (data.length > 0) sort(data, indices, 0, data.length-1);
+    return indices;
+  }
+
+  private static void sort(double[] data, int[] indices, int low, int high) {
+
+    int i = low, j = high;
+    double pivot = data[low + (high-low)/2];
+
+    while (i <= j) {
+      while (Double.compare(data[i], pivot) > 0) {
+        i++;
+      }
+      while (Double.compare(data[j], pivot) < 0) {
+        j--;
+      }
+
+      if (i <= j) {
+        double tmpd = data[i];
+        data[i] = data[j];
+        data[j] = tmpd;
+        int tmpi = indices[i];
+        indices[i] = indices[j];
+        indices[j] = tmpi;
+        i++;
+        j--;
+      }
+    }
+
+    if (low < j)
+      sort(data, indices, low, j);
+    if (i < high)
+      sort(data, indices, i, high);
+  }
+
   /**
    * swap two elements
    */
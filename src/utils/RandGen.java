@@ -1,9 +1,27 @@
 package utils;
 
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RandGen {
 
+  // seeded generators: one per thread, in the order threads ask for one
+  private static final AtomicLong nbSeeded = new AtomicLong();
+  private static final ThreadLocal<Random> seeded =
+    ThreadLocal.withInitial(() -> new Random(Config.get().seed + nbSeeded.getAndIncrement()));
+
+  /**
+   * generator of the current thread
+   *
+   * with a seed in the configuration (seed != 0) the generators are
+   * seeded: a run on one thread draws the same numbers every time
+   */
+  public static Random random() {
+    if (Config.get().seed == 0) return ThreadLocalRandom.current();
+    return seeded.get();
+  }
+
   public static char randChar(){
     char min = 'A';
     char max = 'Z'+1;
@@ -22,7 +40,8 @@ public class RandGen {
 
   public static int randInt(int min, int max) {
 
-    Random rand = new Random();
+    // (a new Random per call costs more than the draw)
+    Random rand = random();
     int randomNum = rand.nextInt((max - min) + 1) + min;
 
     return randomNum;
@@ -0,0 +1,243 @@
+package utils;
+
+import ttp.TTPSolution;
+
+/**
+ * final travel time of a bit-flip
+ *
+ *   ft = timeAcc[pos-1] + sum(r >= pos) edgeLen[r] / (maxSpeed - (weightAcc[r] + deltaW) * C)
+ *
+ * the divisions don't depend on each other: they are computed by
+ * blocks, on double copies of edgeLen and weightAcc, in a loop with
+ * no conversion and no dependency between iterations; the sum is then
+ * done in tour order, the result is the same as the scalar loop's,
+ * bit for bit
+ *
+ * a bounded evaluation stops once the time exceeds the largest
+ * acceptable one (see maxTime)
+ *
+ * accepted flips are lazy: apply() only records the weight picked at
+ * the flipped position, weightAcc and timeAcc (and the copies) are
+ * rebuilt from the first flipped position when an evaluation reaches
+ * it, so consecutive flips share one rebuild and a bounded evaluation
+ * only rebuilds the part of the tour it reads; the rebuilt values are
+ * those of one recovery loop per flip, bit for bit
+ *
+ * update() after the solution's vectors changed elsewhere,
+ * sync() before reading them
+ *
+ * @author kyu
+ */
+public class SuffixKernel {
+
+  // block of divisions (stays in L1)
+  private static final int BLOCK = 256;
+  // block of a bounded evaluation (between two tests of the bound)
+  private static final int STEP = 32;
+
+  private final int n;
+  // double copies of edgeLen and weightAcc
+  private final double[] len;
+  private final double[] weight;
+  // quotients of a block
+  private final double[] quot = new double[BLOCK];
+
+  // weight picked at each tour position
+  private final long[] picked;
+  private long totalWeight;
+  // vectors are up to date before this position
+  private int stale;
+  // flips since the last complete rebuild (the weight delta of the first)
+  private int nbPending;
+  private long pendingDw;
+
+  public SuffixKernel(int nbCities) {
+    this.n = nbCities;
+    this.len = new double[nbCities];
+    this.weight = new double[nbCities];
+    this.picked = new long[nbCities];
+  }
+
+  /**
+   * (re)load the vectors of an evaluated solution
+   */
+  public void update(TTPSolution sol) {
+    long[] edgeLen = sol.edgeLen;
+    long[] weightAcc = sol.weightAcc;
+    for (int r = 0; r < n; r++) {
+      len[r] = edgeLen[r];
+      weight[r] = weightAcc[r];
+      picked[r] = weightAcc[r] - (r == 0 ? 0 : weightAcc[r - 1]);
+    }
+    totalWeight = weightAcc[n - 1];
+    stale = n;
+    nbPending = 0;
+  }
+
+  /**
+   * time at tour position pos (timeAcc[pos-1], rebuilt up to there)
+   */
+  public double startTime(TTPSolution sol, int pos, double maxSpeed, double C) {
+    rebuild(sol, pos, maxSpeed, C);
+    return pos == 0 ? 0 : sol.timeAcc[pos - 1];
+  }
+
+  /**
+   * final time once deltaW is added at tour position pos
+   */
+  public double finalTime(TTPSolution sol, int pos, long deltaW, double maxSpeed, double C) {
+    return finalTime(sol, pos, deltaW, maxSpeed, C, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * final time, bounded: the time only grows along the suffix, the sum
+   * stops as soon as it exceeds ftMax (the move is then rejected anyway)
+   *
+   * @return the final time, or a partial time > ftMax
+   */
+  public double finalTime(TTPSolution sol, int pos, long deltaW, double maxSpeed, double C, double ftMax) {
+    rebuild(sol, pos, maxSpeed, C);
+    double ft = pos == 0 ? 0 : sol.timeAcc[pos - 1];
+    double dw = deltaW;
+    for (int b = pos; b < n; b += STEP) {
+      int nb = Math.min(STEP, n - b);
+      rebuild(sol, b + nb, maxSpeed, C);
+      divide(b, nb, dw, maxSpeed, C);
+      for (int i = 0; i < nb; i++) {
+        ft += quot[i];
+      }
+      if (ft > ftMax) break;
+    }
+    return ft;
+  }
+
+  /**
+   * final times of several deltas at the same position (the items of
+   * a city): ft[q] is finalTime(sol, pos, deltaW[q], maxSpeed, C, ftMax[q]),
+   * the deltas are evaluated together block by block and each one
+   * stops past its bound
+   *
+   * @param nbDeltas number of deltas
+   * @param ft final times (output)
+   */
+  public void finalTimes(TTPSolution sol, int pos, long[] deltaW, int nbDeltas,
+                         double maxSpeed, double C, double[] ftMax, double[] ft) {
+    rebuild(sol, pos, maxSpeed, C);
+    double start = pos == 0 ? 0 : sol.timeAcc[pos - 1];
+    for (int q = 0; q < nbDeltas; q++) {
+      ft[q] = start;
+    }
+    for (int b = pos; b < n; b += STEP) {
+      int nb = Math.min(STEP, n - b);
+      rebuild(sol, b + nb, maxSpeed, C);
+      boolean active = false;
+      for (int q = 0; q < nbDeltas; q++) {
+        if (ft[q] > ftMax[q]) continue;
+        divide(b, nb, deltaW[q], maxSpeed, C);
+        double t = ft[q];
+        for (int i = 0; i < nb; i++) {
+          t += quot[i];
+        }
+        ft[q] = t;
+        active |= t <= ftMax[q];
+      }
+      if (!active) break;
+    }
+  }
+
+  /**
+   * largest final time for which fp - ft*R may be above gMin
+   * (with a margin for the rounding of the objective and its tests)
+   */
+  public static double maxTime(long fp, double gMin, double R) {
+    double t = (fp - gMin) / R;
+    return t + 1e-9 * (Math.abs(t) + (Math.abs((double) fp) + Math.abs(gMin)) / R);
+  }
+
+  /**
+   * add deltaW at tour position pos (the vectors are rebuilt later)
+   */
+  public void apply(int pos, long deltaW) {
+    picked[pos] += deltaW;
+    totalWeight += deltaW;
+    stale = Math.min(stale, pos);
+    if (nbPending++ == 0) pendingDw = deltaW;
+  }
+
+  /**
+   * rebuild the whole vectors
+   *
+   * @return final time
+   */
+  public double sync(TTPSolution sol, double maxSpeed, double C) {
+    rebuild(sol, n, maxSpeed, C);
+    return sol.timeAcc[n - 1];
+  }
+
+  /**
+   * current total weight
+   */
+  public long totalWeight() {
+    return totalWeight;
+  }
+
+  /**
+   * reference: scalar loop over the solution's vectors
+   */
+  public static double scalarTime(TTPSolution sol, int pos, long deltaW, double maxSpeed, double C) {
+    long[] weightAcc = sol.weightAcc;
+    long[] edgeLen = sol.edgeLen;
+    double ft = pos == 0 ? 0 : sol.timeAcc[pos - 1];
+    for (int r = pos; r < edgeLen.length; r++) {
+      ft += edgeLen[r] / (maxSpeed - (weightAcc[r] + deltaW) * C);
+    }
+    return ft;
+  }
+
+  // rebuild weightAcc, timeAcc and the weight copies up to a position
+  // (same operations as the recovery loop of each flip)
+  private void rebuild(TTPSolution sol, int upTo, double maxSpeed, double C) {
+    long[] weightAcc = sol.weightAcc;
+    double[] timeAcc = sol.timeAcc;
+    while (stale < upTo) {
+      int b = stale;
+      int nb = Math.min(BLOCK, upTo - b);
+      double t = b == 0 ? 0 : timeAcc[b - 1];
+      if (nbPending == 1) {
+        // one flip: the stale weights only miss its delta
+        double dw = pendingDw;
+        divide(b, nb, dw, maxSpeed, C);
+        for (int i = 0; i < nb; i++) {
+          t += quot[i];
+          timeAcc[b + i] = t;
+          weightAcc[b + i] += pendingDw;
+          weight[b + i] += dw;
+        }
+      } else {
+        // weights from the picked ones
+        long wc = b == 0 ? 0 : weightAcc[b - 1];
+        for (int i = 0; i < nb; i++) {
+          wc += picked[b + i];
+          weightAcc[b + i] = wc;
+          weight[b + i] = wc;
+        }
+        divide(b, nb, 0, maxSpeed, C);
+        for (int i = 0; i < nb; i++) {
+          t += quot[i];
+          timeAcc[b + i] = t;
+        }
+      }
+      stale = b + nb;
+    }
+    if (stale == n) nbPending = 0;
+  }
+
+  // quotients of positions [b, b+nb)
+  // (weights are integers below 2^53: weight + dw is exact, as in long)
+  private void divide(int b, int nb, double dw, double maxSpeed, double C) {
+    double[] q = quot, l = len, w = weight;
+    for (int i = 0; i < nb; i++) {
+      q[i] = l[b + i] / (maxSpeed - (w[b + i] + dw) * C);
+    }
+  }
+}
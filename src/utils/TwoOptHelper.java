@@ -1,5 +1,8 @@
 package utils;
 
+import ttp.DistanceOracle;
+import ttp.TTPSolution;
+
 /**
  * 2-OPT operations
  * 
@@ -74,6 +77,39 @@ public class TwoOptHelper {
 
 
 
+  /**
+   * do 2opt arcs exchange
+   * and update the solution's edge lengths
+   *
+   * reversing tour[i..j] reverses edges i..j-1,
+   * only edges i-1 and j are new
+   *
+   * @param sol TTP solution
+   * @param D distances
+   * @param i beginning
+   * @param j end
+   */
+  public static void do2opt(TTPSolution sol, DistanceOracle D, int i, int j) {
+    if (j <= i) return;
+
+    int[] tour = sol.getTour();
+    long[] edgeLen = sol.edgeLen;
+    int n = tour.length;
+
+    do2opt(tour, i, j);
+
+    long tmp;
+    for (int a=i, b=j-1; a<b; a++, b--) {
+      tmp = edgeLen[a];
+      edgeLen[a] = edgeLen[b];
+      edgeLen[b] = tmp;
+    }
+    int h = (i-1+n)%n;
+    edgeLen[h] = D.dist(tour[h]-1, tour[i]-1);
+    edgeLen[j] = D.dist(tour[j]-1, tour[(j+1)%n]-1);
+  }
+
+
   /**
    * do random 2opt arcs exchange
    */